@@ -0,0 +1,26 @@
+package ru.ifmo.rain.efimov.crawler;
+
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs {@link TasksPerHostBenchmark} with each of 1, 2, 4, ... threads up to twice the processors,
+ * other JMH options may be given as arguments. <br/>
+ * java -cp target/benchmarks.jar ru.ifmo.rain.efimov.crawler.CrawlerBenchmarks
+ */
+public class CrawlerBenchmarks {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        int maxThreads = 2 * Runtime.getRuntime().availableProcessors();
+        for (int threads = 1; threads <= maxThreads; threads *= 2) {
+            OptionsBuilder options = new OptionsBuilder();
+            if (commandLine.getIncludes().isEmpty()) {
+                options.include(TasksPerHostBenchmark.class.getSimpleName());
+            }
+            new Runner(options.parent(commandLine).threads(threads).build()).run();
+        }
+    }
+}
@@ -0,0 +1,165 @@
+package ru.ifmo.rain.efimov.crawler;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.util.ArrayDeque;
+import java.util.HashMap;
+import java.util.LinkedList;
+import java.util.List;
+import java.util.Map;
+import java.util.Queue;
+import java.util.concurrent.AbstractExecutorService;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Contention of per-host scheduling: one operation is a task put to a random host,
+ * run and counted down. Tasks are not run by a pool but by the thread which started them,
+ * right after the put, so only scheduling is measured. <br/>
+ * 'synchronized' is the former single-monitor scheduler, 'concurrent' is {@link TasksPerHostManager}.
+ * Run with {@link CrawlerBenchmarks} to see it across thread counts.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.MICROSECONDS)
+@Warmup(iterations = 3, time = 1)
+@Measurement(iterations = 5, time = 1)
+@Fork(1)
+public class TasksPerHostBenchmark {
+    private static final ThreadLocal<ArrayDeque<Runnable>> STARTED = ThreadLocal.withInitial(ArrayDeque::new);
+    private static final ExecutorService CALLER_RUNS_LATER = new AbstractExecutorService() {
+        @Override
+        public void execute(Runnable command) {
+            STARTED.get().add(command);
+        }
+
+        @Override
+        public void shutdown() {
+        }
+
+        @Override
+        public List<Runnable> shutdownNow() {
+            return List.of();
+        }
+
+        @Override
+        public boolean isShutdown() {
+            return false;
+        }
+
+        @Override
+        public boolean isTerminated() {
+            return false;
+        }
+
+        @Override
+        public boolean awaitTermination(long timeout, TimeUnit unit) {
+            return false;
+        }
+    };
+
+    @Param({"synchronized", "concurrent"})
+    public String scheduler;
+
+    @Param({"1", "64"})
+    public int hosts;
+
+    @Param({"4"})
+    public int perHost;
+
+    private Scheduler tasks;
+    private String[] hostNames;
+
+    @Setup
+    public void setUp() {
+        if (scheduler.equals("synchronized")) {
+            tasks = new SynchronizedScheduler(perHost, CALLER_RUNS_LATER);
+        } else {
+            TasksPerHostManager manager = new TasksPerHostManager(perHost, CALLER_RUNS_LATER);
+            tasks = new Scheduler() {
+                @Override
+                public void putTask(String host, Runnable task) {
+                    manager.putTask(host, task);
+                }
+
+                @Override
+                public void contDown(String host) {
+                    manager.contDown(host);
+                }
+            };
+        }
+        hostNames = new String[hosts];
+        for (int i = 0; i < hosts; i++) {
+            hostNames[i] = "host" + i + ".example.com";
+        }
+    }
+
+    @Benchmark
+    public void putAndCountDown() {
+        String host = hostNames[ThreadLocalRandom.current().nextInt(hostNames.length)];
+        tasks.putTask(host, () -> tasks.contDown(host));
+        ArrayDeque<Runnable> started = STARTED.get();
+        for (Runnable task; null != (task = started.poll()); ) {
+            task.run();
+        }
+    }
+
+    private interface Scheduler {
+        void putTask(String host, Runnable task);
+
+        void contDown(String host);
+    }
+
+    /**
+     * Scheduler before lock-free hosts: one monitor over two maps.
+     */
+    private static class SynchronizedScheduler implements Scheduler {
+        private final int perhost;
+        private final Map<String, Integer> onHost = new HashMap<>();
+        private final Map<String, Queue<Runnable>> pending = new HashMap<>();
+        private final ExecutorService downloadersPool;
+
+        private SynchronizedScheduler(int perHost, ExecutorService downloadersPool) {
+            this.perhost = perHost;
+            this.downloadersPool = downloadersPool;
+        }
+
+        @Override
+        public synchronized void putTask(String host, Runnable task) {
+            onHost.putIfAbsent(host, 0);
+            if (onHost.get(host) < perhost) {
+                onHost.put(host, onHost.get(host) + 1);
+                downloadersPool.submit(task);
+            } else {
+                pending.putIfAbsent(host, new LinkedList<>());
+                pending.get(host).add(task);
+            }
+        }
+
+        @Override
+        public synchronized void contDown(String host) {
+            Queue<Runnable> queue = pending.get(host);
+            if (null != queue) {
+                Runnable runnable = queue.poll();
+                if (null != runnable) {
+                    downloadersPool.submit(runnable);
+                } else {
+                    pending.remove(host);
+                }
+            } else {
+                onHost.put(host, onHost.get(host) - 1);
+            }
+        }
+    }
+}
@@ -0,0 +1,71 @@
+package ru.ifmo.rain.efimov.hello;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.OutputStream;
+import java.io.PrintStream;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Blocking client and server on loopback with platform thread pools and with virtual threads.
+ * One operation is a client run of all clients with a few requests each. <br/>
+ * Virtual threads need JDK 21, the course interfaces are not in the benchmarks jar: <br/>
+ * java -cp target/benchmarks.jar:lib/* org.openjdk.jmh.Main HelloThreadsBenchmark
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.AverageTime)
+@OutputTimeUnit(TimeUnit.MILLISECONDS)
+@Warmup(iterations = 2)
+@Measurement(iterations = 5)
+@Fork(1)
+public class HelloThreadsBenchmark {
+    private static final int PORT = 28880;
+    private static final int SERVER_THREADS = 16;
+    private static final int REQUESTS = 5;
+
+    @Param({"false", "true"})
+    public boolean virtualThreads;
+
+    @Param({"100", "1000", "5000"})
+    public int clients;
+
+    private HelloUDPServer server;
+    private HelloUDPClient client;
+    private PrintStream out;
+
+    @Setup(Level.Trial)
+    public void setUp() {
+        if (virtualThreads && !VirtualThreads.supported()) {
+            throw new IllegalStateException("Virtual threads need JDK 21 or later");
+        }
+        out = System.out;
+        System.setOut(new PrintStream(OutputStream.nullOutputStream()));
+        server = new HelloUDPServer(HelloUDPServer.OverloadPolicy.INLINE, 0, virtualThreads);
+        server.start(PORT, SERVER_THREADS);
+        client = new HelloUDPClient(RetransmitTimer.DEFAULT_MIN_TIMEOUT, RetransmitTimer.DEFAULT_MAX_TIMEOUT,
+                virtualThreads);
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() {
+        server.close();
+        System.setOut(out);
+    }
+
+    @Benchmark
+    public void run() {
+        client.run("localhost", PORT, "bench", clients, REQUESTS);
+    }
+}
@@ -0,0 +1,59 @@
+package ru.ifmo.rain.efimov.walk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.Random;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * {@link FNVHash#hash32(Path)} of one file by read buffer size.
+ * Mapping is disabled, so every size is read through the buffer.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class FNVHashBenchmark {
+    @Param({"512", "4096", "65536", "1048576"})
+    public int bufferSize;
+
+    @Param({"4096", "1048576", "67108864"})
+    public long fileSize;
+
+    private Path file;
+    private FNVHash hash;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        file = Files.createTempFile("fnv", ".bin");
+        SyntheticTree.writeFile(file, fileSize, new Random(fileSize));
+        hash = new FNVHash(new ContentReader(bufferSize, Long.MAX_VALUE));
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        Files.deleteIfExists(file);
+    }
+
+    @Benchmark
+    public int hash32() throws IOException {
+        return hash.hash32(file);
+    }
+}
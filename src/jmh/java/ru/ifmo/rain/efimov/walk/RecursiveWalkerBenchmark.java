@@ -0,0 +1,63 @@
+package ru.ifmo.rain.efimov.walk;
+
+import org.openjdk.jmh.annotations.Benchmark;
+import org.openjdk.jmh.annotations.BenchmarkMode;
+import org.openjdk.jmh.annotations.Fork;
+import org.openjdk.jmh.annotations.Level;
+import org.openjdk.jmh.annotations.Measurement;
+import org.openjdk.jmh.annotations.Mode;
+import org.openjdk.jmh.annotations.OutputTimeUnit;
+import org.openjdk.jmh.annotations.Param;
+import org.openjdk.jmh.annotations.Scope;
+import org.openjdk.jmh.annotations.Setup;
+import org.openjdk.jmh.annotations.State;
+import org.openjdk.jmh.annotations.TearDown;
+import org.openjdk.jmh.annotations.Warmup;
+
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.util.List;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * End-to-end {@link RecursiveWalker#walk(Path, Path)} of a generated tree with default settings.
+ * Files are in page cache after the first walk, so this measures walk overhead, not the disk.
+ */
+@State(Scope.Benchmark)
+@BenchmarkMode(Mode.Throughput)
+@OutputTimeUnit(TimeUnit.SECONDS)
+@Warmup(iterations = 3, time = 2)
+@Measurement(iterations = 5, time = 2)
+@Fork(1)
+public class RecursiveWalkerBenchmark {
+    @Param
+    public SyntheticTree tree;
+
+    private Path root;
+    private Path inputFile;
+    private Path outputFile;
+    private RecursiveWalker walker;
+
+    @Setup(Level.Trial)
+    public void setUp() throws IOException {
+        root = tree.create();
+        inputFile = Files.createTempFile("walk", ".in");
+        outputFile = Files.createTempFile("walk", ".out");
+        Files.write(inputFile, List.of(root.toString()), StandardCharsets.UTF_8);
+        walker = new RecursiveWalker();
+    }
+
+    @TearDown(Level.Trial)
+    public void tearDown() throws IOException {
+        SyntheticTree.delete(root);
+        Files.deleteIfExists(inputFile);
+        Files.deleteIfExists(outputFile);
+    }
+
+    @Benchmark
+    public void walk() throws IOException {
+        walker.walk(inputFile, outputFile);
+    }
+}
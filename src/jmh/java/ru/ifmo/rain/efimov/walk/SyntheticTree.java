@@ -0,0 +1,105 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Random;
+
+/**
+ * Shapes of generated trees for walk benchmarks. Content is pseudo-random with fixed seed,
+ * so every trial walks the same bytes.
+ */
+public enum SyntheticTree {
+    /**
+     * Many tiny files in one level of directories: cost of traversal, open and output.
+     */
+    TINY_FILES {
+        @Override
+        void fill(Path root, Random random) throws IOException {
+            for (int d = 0; d < 20; d++) {
+                Path directory = Files.createDirectory(root.resolve("d" + d));
+                for (int f = 0; f < 500; f++) {
+                    writeFile(directory.resolve("f" + f), 1 + random.nextInt(256), random);
+                }
+            }
+        }
+    },
+    /**
+     * A few huge files: read throughput and hash speed.
+     */
+    HUGE_FILES {
+        @Override
+        void fill(Path root, Random random) throws IOException {
+            for (int f = 0; f < 4; f++) {
+                writeFile(root.resolve("huge" + f), 32 << 20, random);
+            }
+        }
+    },
+    /**
+     * Long chain of nested directories with a small file on each level.
+     */
+    DEEP_NESTING {
+        @Override
+        void fill(Path root, Random random) throws IOException {
+            Path directory = root;
+            for (int level = 0; level < 200; level++) {
+                directory = Files.createDirectory(directory.resolve("l" + level));
+                writeFile(directory.resolve("f"), 1024, random);
+            }
+        }
+    },
+    /**
+     * One directory with lots of small files.
+     */
+    WIDE_DIRECTORY {
+        @Override
+        void fill(Path root, Random random) throws IOException {
+            for (int f = 0; f < 10000; f++) {
+                writeFile(root.resolve("f" + f), 1 + random.nextInt(4096), random);
+            }
+        }
+    };
+
+    private static final long SEED = 3141592653L;
+
+    abstract void fill(Path root, Random random) throws IOException;
+
+    /**
+     * Creates the tree in a new temporary directory.
+     */
+    public Path create() throws IOException {
+        Path root = Files.createTempDirectory("walk-" + name().toLowerCase());
+        fill(root, new Random(SEED));
+        return root;
+    }
+
+    static void writeFile(Path file, long size, Random random) throws IOException {
+        byte[] chunk = new byte[(int) Math.min(size, 1 << 20)];
+        try (OutputStream output = Files.newOutputStream(file)) {
+            for (long left = size; left > 0; left -= chunk.length) {
+                random.nextBytes(chunk);
+                output.write(chunk, 0, (int) Math.min(left, chunk.length));
+            }
+        }
+    }
+
+    public static void delete(Path root) throws IOException {
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) throws IOException {
+                Files.delete(file);
+                return FileVisitResult.CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult postVisitDirectory(Path dir, IOException exc) throws IOException {
+                Files.delete(dir);
+                return FileVisitResult.CONTINUE;
+            }
+        });
+    }
+}
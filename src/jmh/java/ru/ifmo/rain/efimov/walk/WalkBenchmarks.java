@@ -0,0 +1,26 @@
+package ru.ifmo.rain.efimov.walk;
+
+import org.openjdk.jmh.profile.GCProfiler;
+import org.openjdk.jmh.runner.Runner;
+import org.openjdk.jmh.runner.RunnerException;
+import org.openjdk.jmh.runner.options.CommandLineOptionException;
+import org.openjdk.jmh.runner.options.CommandLineOptions;
+import org.openjdk.jmh.runner.options.OptionsBuilder;
+
+/**
+ * Runs walk benchmarks with {@link GCProfiler}, so allocation rate per operation is reported
+ * next to throughput. Other JMH options may be given as arguments, for example
+ * a benchmark name regexp or -p bufferSize=65536. <br/>
+ * java -cp target/benchmarks.jar ru.ifmo.rain.efimov.walk.WalkBenchmarks
+ */
+public class WalkBenchmarks {
+    public static void main(String[] args) throws RunnerException, CommandLineOptionException {
+        CommandLineOptions commandLine = new CommandLineOptions(args);
+        OptionsBuilder options = new OptionsBuilder();
+        if (commandLine.getIncludes().isEmpty()) {
+            options.include(FNVHashBenchmark.class.getSimpleName())
+                    .include(RecursiveWalkerBenchmark.class.getSimpleName());
+        }
+        new Runner(options.parent(commandLine).addProfiler(GCProfiler.class).build()).run();
+    }
+}
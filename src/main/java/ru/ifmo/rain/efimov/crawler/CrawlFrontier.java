@@ -0,0 +1,227 @@
+package ru.ifmo.rain.efimov.crawler;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.Closeable;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.EOFException;
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.channels.FileChannel;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.util.ArrayDeque;
+import java.util.Map;
+import java.util.function.ObjIntConsumer;
+
+/**
+ * Pages waiting to be downloaded in the order they were found, not more than the capacity of them in memory.
+ * <br/><br/>
+ * Without a state directory pages which don't fit are appended to a temporary spill file
+ * and read back in batches when memory is empty. <br/>
+ * With a state directory the frontier is a journal for resuming the crawl after a restart:
+ * every found page is appended to 'frontier.log', which is also the on-disk set of seen pages,
+ * and each finished or failed page is appended to 'done.log'. Frontier log is flushed before a page
+ * is marked finished, so the links found on it are never lost. Pages are always read back from the log.
+ * <br/><br/>
+ * Log tails written partially before a crash are cut on resume. I/O errors are thrown as
+ * {@link UncheckedIOException}. Thread-safe.
+ */
+class CrawlFrontier implements Closeable {
+    private static final String FRONTIER_LOG = "frontier.log";
+    private static final String DONE_LOG = "done.log";
+    private static final byte FINISHED = 'X';
+    private static final byte FAILED = 'F';
+
+    private final int capacity;
+    private final Path stateDirectory;
+    private final ArrayDeque<Entry> memory = new ArrayDeque<>();
+    private Path logFile;
+    private DataOutputStream log;
+    private DataInputStream reader;
+    private DataOutputStream done;
+    private long unread;
+
+    /**
+     * @param capacity       pages kept in memory; <br/>
+     * @param stateDirectory directory of the journal, or null to spill to a temporary file. <br/>
+     */
+    CrawlFrontier(int capacity, Path stateDirectory) {
+        this.capacity = capacity;
+        this.stateDirectory = stateDirectory;
+    }
+
+    boolean journaled() {
+        return null != stateDirectory;
+    }
+
+    /**
+     * Opens the journal, replaying pages of a previous run: each logged page is given to seen,
+     * each finished or failed one to finished, failed ones with their error message.
+     * Logged pages will be polled again, finished ones should be skipped by the caller.
+     */
+    synchronized void resume(ObjIntConsumer<String> seen, Map<String, String> finished) {
+        try {
+            Files.createDirectories(stateDirectory);
+            logFile = stateDirectory.resolve(FRONTIER_LOG);
+            Path doneFile = stateDirectory.resolve(DONE_LOG);
+            if (Files.exists(logFile)) {
+                long length = 0;
+                try (DataInputStream in = open(logFile)) {
+                    while (true) {
+                        String url = in.readUTF();
+                        int depth = in.readInt();
+                        length += 2 + utfLength(url) + Integer.BYTES;
+                        seen.accept(url, depth);
+                        unread++;
+                    }
+                } catch (EOFException ignored) {
+                }
+                truncate(logFile, length);
+            }
+            if (Files.exists(doneFile)) {
+                long length = 0;
+                try (DataInputStream in = open(doneFile)) {
+                    while (true) {
+                        byte status = in.readByte();
+                        String url = in.readUTF();
+                        String message = status == FAILED ? in.readUTF() : null;
+                        length += 1 + 2 + utfLength(url) + (null == message ? 0 : 2 + utfLength(message));
+                        finished.put(url, message);
+                    }
+                } catch (EOFException ignored) {
+                }
+                truncate(doneFile, length);
+            }
+            log = append(logFile);
+            done = append(doneFile);
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    synchronized void add(String url, int depth) {
+        if (!journaled() && unread == 0 && memory.size() < capacity) {
+            memory.add(new Entry(url, depth));
+            return;
+        }
+        try {
+            if (null == log) {
+                logFile = Files.createTempFile("crawl-frontier", ".log");
+                log = append(logFile);
+            }
+            log.writeUTF(url);
+            log.writeInt(depth);
+            unread++;
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Returns the oldest waiting page, or null if there are none.
+     */
+    synchronized Entry poll() {
+        if (memory.isEmpty() && unread > 0) {
+            try {
+                log.flush();
+                if (null == reader) {
+                    reader = open(logFile);
+                }
+                for (; unread > 0 && memory.size() < capacity; unread--) {
+                    memory.add(new Entry(reader.readUTF(), reader.readInt()));
+                }
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+        return memory.poll();
+    }
+
+    /**
+     * Marks the page done in the journal: after a resume it is not downloaded again.
+     *
+     * @param error message of the error of the page, or null if it is downloaded and its links are added. <br/>
+     */
+    synchronized void finish(String url, String error) {
+        if (!journaled()) {
+            return;
+        }
+        try {
+            log.flush();
+            done.writeByte(null == error ? FINISHED : FAILED);
+            done.writeUTF(url);
+            if (null != error) {
+                done.writeUTF(error);
+            }
+            done.flush();
+        } catch (IOException e) {
+            throw new UncheckedIOException(e);
+        }
+    }
+
+    /**
+     * Closes files, removes the spill file, and the journal if the crawl is complete.
+     */
+    synchronized void close(boolean complete) throws IOException {
+        close();
+        if (!journaled() && null != logFile) {
+            Files.deleteIfExists(logFile);
+        } else if (journaled() && complete) {
+            Files.deleteIfExists(stateDirectory.resolve(FRONTIER_LOG));
+            Files.deleteIfExists(stateDirectory.resolve(DONE_LOG));
+            Files.deleteIfExists(stateDirectory);
+        }
+    }
+
+    @Override
+    public synchronized void close() throws IOException {
+        for (Closeable closeable : new Closeable[]{reader, log, done}) {
+            if (null != closeable) {
+                closeable.close();
+            }
+        }
+        reader = null;
+        log = null;
+        done = null;
+    }
+
+    private static DataInputStream open(Path file) throws IOException {
+        return new DataInputStream(new BufferedInputStream(Files.newInputStream(file)));
+    }
+
+    private static DataOutputStream append(Path file) throws IOException {
+        return new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(file,
+                StandardOpenOption.CREATE, StandardOpenOption.APPEND)));
+    }
+
+    private static void truncate(Path file, long length) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.WRITE)) {
+            channel.truncate(length);
+        }
+    }
+
+    /**
+     * Length of the string in modified UTF-8 of {@link DataOutputStream#writeUTF(String)}.
+     */
+    private static int utfLength(String s) {
+        int length = 0;
+        for (int i = 0; i < s.length(); i++) {
+            char c = s.charAt(i);
+            length += c >= 0x0001 && c <= 0x007F ? 1 : c <= 0x07FF ? 2 : 3;
+        }
+        return length;
+    }
+
+    static class Entry {
+        final String url;
+        final int depth;
+
+        private Entry(String url, int depth) {
+            this.url = url;
+            this.depth = depth;
+        }
+    }
+}
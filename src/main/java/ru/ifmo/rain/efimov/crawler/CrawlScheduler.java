@@ -0,0 +1,139 @@
+package ru.ifmo.rain.efimov.crawler;
+
+import java.util.ArrayDeque;
+import java.util.Comparator;
+import java.util.PriorityQueue;
+import java.util.concurrent.Executor;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Shares download and extractor threads between concurrent crawls by deficit round-robin. <br/>
+ * Each crawl is a {@link Flow} with a weight: in each round a flow with waiting tasks runs up to
+ * its weight of them, so a crawl with weight 2 gets twice the threads of a crawl with weight 1 while
+ * both have work, and a small crawl is not queued behind all tasks of a huge one.
+ * Within a flow tasks of shallower pages, which have more depth left, run first. <br/>
+ * Threads run tokens, one per submitted task, and each token runs the task chosen at the moment
+ * a thread is free, so the pools keep their usual lazy threads and shutdown. Thread-safe.
+ */
+class CrawlScheduler {
+    private final Lane downloads;
+    private final Lane extractions;
+
+    CrawlScheduler(int downloaders, int extractors) {
+        downloads = new Lane(Executors.newFixedThreadPool(downloaders));
+        extractions = new Lane(Executors.newFixedThreadPool(extractors));
+    }
+
+    Flow flow(int weight) {
+        if (weight < 1) {
+            throw new IllegalArgumentException("Weight must be positive: " + weight);
+        }
+        return new Flow(weight);
+    }
+
+    void shutdownNow() {
+        downloads.pool.shutdownNow();
+        extractions.pool.shutdownNow();
+    }
+
+    /**
+     * Tasks of one crawl.
+     */
+    class Flow {
+        private final FlowQueue downloadQueue;
+        private final FlowQueue extractionQueue;
+
+        private Flow(int weight) {
+            downloadQueue = new FlowQueue(weight);
+            extractionQueue = new FlowQueue(weight);
+        }
+
+        /**
+         * @param depth depth left at the page of the task, pages with more depth left run first. <br/>
+         */
+        void download(int depth, Runnable task) {
+            downloads.add(downloadQueue, new Task(depth, task));
+        }
+
+        void extract(int depth, Runnable task) {
+            extractions.add(extractionQueue, new Task(depth, task));
+        }
+
+        Executor extractor(int depth) {
+            return task -> extract(depth, task);
+        }
+    }
+
+    private static class Task {
+        private static final Comparator<Task> SHALLOWER_FIRST =
+                Comparator.<Task>comparingInt(task -> -task.depth).thenComparingLong(task -> task.sequence);
+
+        private final int depth;
+        private final Runnable runnable;
+        private long sequence;
+
+        private Task(int depth, Runnable runnable) {
+            this.depth = depth;
+            this.runnable = runnable;
+        }
+    }
+
+    private static class FlowQueue {
+        private final int weight;
+        private final PriorityQueue<Task> tasks = new PriorityQueue<>(Task.SHALLOWER_FIRST);
+        private long sequence;
+        private int deficit;
+        private boolean active;
+
+        private FlowQueue(int weight) {
+            this.weight = weight;
+        }
+    }
+
+    private static class Lane {
+        private final ExecutorService pool;
+        private final ArrayDeque<FlowQueue> active = new ArrayDeque<>();
+
+        private Lane(ExecutorService pool) {
+            this.pool = pool;
+        }
+
+        private void add(FlowQueue queue, Task task) {
+            synchronized (this) {
+                task.sequence = queue.sequence++;
+                queue.tasks.add(task);
+                if (!queue.active) {
+                    queue.active = true;
+                    active.addLast(queue);
+                }
+            }
+            pool.submit(this::runNext);
+        }
+
+        private void runNext() {
+            next().runnable.run();
+        }
+
+        /**
+         * Flow at the head of the round gets its weight of tasks when its turn starts
+         * and keeps the head until they are run or its queue is empty.
+         */
+        private synchronized Task next() {
+            FlowQueue queue = active.peekFirst();
+            if (queue.deficit == 0) {
+                queue.deficit = queue.weight;
+            }
+            queue.deficit--;
+            Task task = queue.tasks.poll();
+            if (queue.tasks.isEmpty()) {
+                active.pollFirst();
+                queue.active = false;
+                queue.deficit = 0;
+            } else if (queue.deficit == 0) {
+                active.addLast(active.pollFirst());
+            }
+            return task;
+        }
+    }
+}
@@ -6,84 +6,217 @@ import info.kgeorgiy.java.advanced.crawler.Result;
 import info.kgeorgiy.java.advanced.crawler.URLUtils;
 
 import java.io.IOException;
+import java.io.UncheckedIOException;
 import java.net.MalformedURLException;
 import java.util.ArrayList;
+import java.util.HashMap;
 import java.util.Map;
-import java.util.Set;
+import java.util.Queue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
 import java.util.concurrent.ConcurrentHashMap;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Phaser;
+import java.util.concurrent.ConcurrentLinkedQueue;
 
 /**
  * It is a single crawler act of following a link to a specified depth. <br/>
  * Downloading and or extracting links from the same page within one
- * crawler act is prohibited.
+ * crawler act is prohibited. <br/>
+ * Found pages wait in a {@link CrawlFrontier}, and not more than its memory capacity of pages
+ * are downloaded or extracted at once, so neither waiting pages nor scheduled tasks
+ * grow with the size of the crawl. With a journaled frontier a crawl interrupted by a restart
+ * continues from its journal, pages finished before the restart are not downloaded again. <br/>
+ * Seen pages are kept as fingerprints in {@link VisitedUrls}, only downloaded pages are kept as urls
+ * for the result. <br/>
+ * Pages are loaded through the {@link PageCache} shared by crawls: page cached or being loaded
+ * by another crawl is not downloaded again, its links are followed by this crawl to its own depth. <br/>
+ * Downloads and extractions of the act are run as its {@link CrawlScheduler.Flow}, shallower pages first.
  */
 class CrawlerDownloadAct {
 
     private final TasksPerHostManager tasksPerHostManager;
     private final Downloader downloader;
-    private final ExecutorService extractorsThreadPool;
+    private final CrawlScheduler.Flow flow;
+    private final CrawlFrontier frontier;
+    private final PageCache cache;
+    private final int window;
 
-    private final Phaser phaser;
-    private final Set<String> processed;
+    private final VisitedUrls visited;
+    private final Queue<String> downloaded;
     private final Map<String, IOException> errors;
+    private final Map<String, String> finishedBeforeRestart = new HashMap<>();
+    private int inProgress;
 
-    CrawlerDownloadAct(Downloader downloader, ExecutorService extractorsThreadPool, TasksPerHostManager tasksPerHostManager) {
+    CrawlerDownloadAct(Downloader downloader, CrawlScheduler.Flow flow, TasksPerHostManager tasksPerHostManager,
+                       CrawlFrontier frontier, PageCache cache, int window) {
         this.tasksPerHostManager = tasksPerHostManager;
-        this.extractorsThreadPool = extractorsThreadPool;
+        this.flow = flow;
         this.downloader = downloader;
+        this.frontier = frontier;
+        this.cache = cache;
+        this.window = window;
 
-        processed = ConcurrentHashMap.newKeySet();
+        visited = new VisitedUrls();
+        downloaded = new ConcurrentLinkedQueue<>();
         errors = new ConcurrentHashMap<>();
-        phaser = new Phaser(1);
     }
 
     Result downloadAct(String url, int depth) {
-        download(url, depth);
-        phaser.arriveAndAwaitAdvance();
-        processed.removeAll(errors.keySet());
-        return new Result(new ArrayList<>(processed), errors);
+        boolean complete = false;
+        try {
+            if (frontier.journaled()) {
+                frontier.resume((seen, seenDepth) -> visited.add(seen), finishedBeforeRestart);
+                finishedBeforeRestart.forEach((finished, error) -> {
+                    if (null == error) {
+                        downloaded.add(finished);
+                    } else {
+                        errors.put(finished, new IOException(error));
+                    }
+                });
+            }
+            found(url, depth);
+            synchronized (this) {
+                startPending();
+                while (inProgress > 0) {
+                    wait();
+                }
+            }
+            complete = true;
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+        } catch (UncheckedIOException e) {
+            errors.put(url, e.getCause());
+        } finally {
+            try {
+                frontier.close(complete);
+            } catch (IOException e) {
+                errors.putIfAbsent(url, e);
+            }
+        }
+        return new Result(new ArrayList<>(downloaded), errors);
     }
 
-    private void download(String url, int depth) {
-        if (depth == 0 || !processed.add(url)) {
-            return;
+    private void found(String url, int depth) {
+        if (depth > 0 && visited.add(url)) {
+            frontier.add(url, depth);
+        }
+    }
+
+    /**
+     * Starts waiting pages while less than the window of them are in progress.
+     */
+    private synchronized void startPending() {
+        while (inProgress < window) {
+            CrawlFrontier.Entry entry = frontier.poll();
+            if (null == entry) {
+                return;
+            }
+            if (!finishedBeforeRestart.containsKey(entry.url)) {
+                inProgress++;
+                try {
+                    download(entry.url, entry.depth);
+                } catch (RuntimeException e) {
+                    finish(entry.url, failure(e));
+                }
+            }
+        }
+    }
+
+    /**
+     * Marks the page done and starts the next ones in the same lock, so the crawl is complete
+     * when no pages are in progress: links of a page are added to the frontier before it is finished.
+     */
+    private void finish(String url, IOException error) {
+        try {
+            if (null == error) {
+                downloaded.add(url);
+            } else {
+                errors.put(url, error);
+            }
+            frontier.finish(url, null == error ? null : error.toString());
+        } catch (UncheckedIOException e) {
+            errors.put(url, e.getCause());
+        } finally {
+            synchronized (this) {
+                inProgress--;
+                try {
+                    startPending();
+                } finally {
+                    if (inProgress == 0) {
+                        notifyAll();
+                    }
+                }
+            }
         }
+    }
+
+    private void download(String url, int depth) {
         String host;
         try {
             host = URLUtils.getHost(url);
         } catch (MalformedURLException e) {
-            errors.put(url, e);
+            finish(url, e);
             return;
         }
 
-        phaser.register();
-        tasksPerHostManager.putTask(host, () -> {
+        cache.get(url, page -> tasksPerHostManager.putTask(host, () -> flow.download(depth, () -> {
             try {
                 Document doc = downloader.download(url);
-                extract(doc, depth, url);
-            } catch (IOException e) {
-                errors.put(url, e);
+                extract(doc, depth, page);
+            } catch (Throwable e) {
+                page.complete(PageCache.Page.failed(failure(e)));
+                rethrowError(e);
             } finally {
-                phaser.arrive();
                 tasksPerHostManager.contDown(host);
             }
-        });
+        }))).whenCompleteAsync((page, e) -> follow(url, depth, page, e), flow.extractor(depth));
     }
 
-    private void extract(Document doc, int depth, String url) {
-        phaser.register();
-        extractorsThreadPool.submit(() -> {
+    private void extract(Document doc, int depth, CompletableFuture<PageCache.Page> page) {
+        flow.extract(depth, () -> {
             try {
-                doc.extractLinks().stream().filter(to -> !processed.contains(to)).forEach(to -> {
-                    download(to, depth - 1);
-                });
-            } catch (IOException e) {
-                errors.put(url, e);
-            } finally {
-                phaser.arrive();
+                page.complete(PageCache.Page.of(doc.extractLinks()));
+            } catch (Throwable e) {
+                page.complete(PageCache.Page.failed(failure(e)));
+                rethrowError(e);
             }
         });
     }
+
+    /**
+     * @param page   loaded page, or null if loading failed; <br/>
+     * @param thrown exception of failed loading. <br/>
+     */
+    private void follow(String url, int depth, PageCache.Page page, Throwable thrown) {
+        if (null == page) {
+            finish(url, failure(thrown instanceof CompletionException ? thrown.getCause() : thrown));
+            return;
+        }
+        IOException error = page.error;
+        try {
+            page.links.forEach(to -> found(to, depth - 1));
+        } catch (RuntimeException e) {
+            error = failure(e);
+        } finally {
+            finish(url, error);
+        }
+    }
+
+    /**
+     * Any failure of a page is its error, so the page is always finished.
+     */
+    private static IOException failure(Throwable e) {
+        if (e instanceof IOException) {
+            return (IOException) e;
+        }
+        if (e instanceof UncheckedIOException) {
+            return ((UncheckedIOException) e).getCause();
+        }
+        return new IOException(e);
+    }
+
+    private static void rethrowError(Throwable e) {
+        if (e instanceof Error) {
+            throw (Error) e;
+        }
+    }
 }
@@ -0,0 +1,100 @@
+package ru.ifmo.rain.efimov.crawler;
+
+import java.io.IOException;
+import java.util.ArrayList;
+import java.util.Collections;
+import java.util.HashMap;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.concurrent.CompletableFuture;
+import java.util.function.Consumer;
+
+/**
+ * Links or error of recently crawled pages shared by all crawls of a {@link WebCrawler}. <br/>
+ * Page is kept for the time to live after it was loaded, not more than the capacity of pages are kept,
+ * the least recently used are evicted first. Page which is being loaded by one crawl is not loaded
+ * by another: both get the same future. <br/>
+ * Zero capacity disables caching, but not sharing of pages in loading. Thread-safe.
+ */
+class PageCache {
+    private final int capacity;
+    private final long ttlNanos;
+    private final Map<String, Page> pages;
+    private final Map<String, CompletableFuture<Page>> loading = new HashMap<>();
+
+    /**
+     * @param capacity pages kept; <br/>
+     * @param ttlNanos time to keep a page. <br/>
+     */
+    PageCache(int capacity, long ttlNanos) {
+        this.capacity = capacity;
+        this.ttlNanos = ttlNanos;
+        this.pages = new LinkedHashMap<>(16, 0.75f, true) {
+            @Override
+            protected boolean removeEldestEntry(Map.Entry<String, Page> eldest) {
+                return size() > PageCache.this.capacity;
+            }
+        };
+    }
+
+    /**
+     * Returns the fresh page, or the page being loaded, or starts loading it: the loader is called
+     * with the future to complete, out of the lock. Page stops being loaded on any completion of the future,
+     * and if the loader throws, the future is completed with its exception.
+     */
+    CompletableFuture<Page> get(String url, Consumer<CompletableFuture<Page>> loader) {
+        CompletableFuture<Page> future;
+        synchronized (this) {
+            Page page = pages.get(url);
+            if (null != page) {
+                if (System.nanoTime() - page.loadedAt < ttlNanos) {
+                    return CompletableFuture.completedFuture(page);
+                }
+                pages.remove(url);
+            }
+            future = loading.get(url);
+            if (null != future) {
+                return future;
+            }
+            future = new CompletableFuture<>();
+            loading.put(url, future);
+        }
+        future.whenComplete((page, error) -> loaded(url, page));
+        try {
+            loader.accept(future);
+        } catch (RuntimeException e) {
+            future.completeExceptionally(e);
+        }
+        return future;
+    }
+
+    /**
+     * @param page loaded page, or null if the future completed exceptionally, which is not cached. <br/>
+     */
+    private synchronized void loaded(String url, Page page) {
+        loading.remove(url);
+        if (capacity > 0 && null != page) {
+            pages.put(url, page);
+        }
+    }
+
+    static class Page {
+        final List<String> links;
+        final IOException error;
+        private final long loadedAt = System.nanoTime();
+
+        private Page(List<String> links, IOException error) {
+            this.links = links;
+            this.error = error;
+        }
+
+        static Page of(List<String> links) {
+            return new Page(Collections.unmodifiableList(new ArrayList<>(links)), null);
+        }
+
+        static Page failed(IOException error) {
+            return new Page(List.of(), error);
+        }
+    }
+}
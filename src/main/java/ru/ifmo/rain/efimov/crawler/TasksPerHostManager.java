@@ -1,52 +1,77 @@
 package ru.ifmo.rain.efimov.crawler;
 
 
-import java.util.HashMap;
-import java.util.LinkedList;
-import java.util.Map;
 import java.util.Queue;
-import java.util.concurrent.ExecutorService;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.ConcurrentLinkedQueue;
+import java.util.concurrent.ConcurrentMap;
+import java.util.concurrent.Executor;
+import java.util.concurrent.atomic.AtomicInteger;
 
 /**
- * Ensure that simultaneous tasks to the same host are less than the specified number.
+ * Ensure that simultaneous tasks to the same host are less than the specified number. <br/>
+ * Each host has its own counter of running tasks and queue of pending ones, so hosts never contend
+ * with each other, and nothing is locked: a task is started only by the thread which increments
+ * the counter below the limit. Task of a host without pending tasks is started at once, without queueing. <br/>
+ * Host state is kept after its tasks are done, it is small and the same host is likely to be met again.
  */
 class TasksPerHostManager {
     private final int perhost;
-    private final Map<String, Integer> onHost;
-    private final Map<String, Queue<Runnable>> pending;
-    private final ExecutorService downloadersPool;
+    private final ConcurrentMap<String, Host> hosts = new ConcurrentHashMap<>();
+    private final Executor downloadersPool;
 
-    TasksPerHostManager(int perHost, ExecutorService downloadersPool) {
+    TasksPerHostManager(int perHost, Executor downloadersPool) {
         this.perhost = perHost;
         this.downloadersPool = downloadersPool;
-
-        this.onHost = new HashMap<>();
-        this.pending = new HashMap<>();
     }
 
-    synchronized void putTask(String host, Runnable task) {
-        onHost.putIfAbsent(host, 0);
-        if (onHost.get(host) < perhost) {
-            onHost.put(host, onHost.get(host) + 1);
-            downloadersPool.submit(task);
-        } else {
-            pending.putIfAbsent(host, new LinkedList<>());
-            pending.get(host).add(task);
+    void putTask(String host, Runnable task) {
+        Host state = hosts.computeIfAbsent(host, name -> new Host());
+        if (state.pending.isEmpty() && tryAcquire(state)) {
+            downloadersPool.execute(task);
+            return;
         }
+        state.pending.add(task);
+        startPending(state);
+    }
 
+    void contDown(String host) {
+        Host state = hosts.get(host);
+        state.running.decrementAndGet();
+        startPending(state);
     }
 
-    synchronized void contDown(String host) {
-        Queue<Runnable> queue = pending.get(host);
-        if (null != queue) {
-            Runnable runnable = queue.poll();
-            if (null != runnable) {
-                downloadersPool.submit(runnable);
+    /**
+     * Starts pending tasks while there are free permits. <br/>
+     * Task is always queued before the counter is checked, and the counter is released before
+     * the queue is checked, so a task can't be left pending while its host has free permits:
+     * either the thread which queued it or the thread which released the permit starts it.
+     */
+    private void startPending(Host state) {
+        while (!state.pending.isEmpty() && tryAcquire(state)) {
+            Runnable task = state.pending.poll();
+            if (null == task) {
+                state.running.decrementAndGet();
             } else {
-                pending.remove(host);
+                downloadersPool.execute(task);
             }
-        } else {
-            onHost.put(host, onHost.get(host) - 1);
         }
     }
-}
\ No newline at end of file
+
+    private boolean tryAcquire(Host state) {
+        while (true) {
+            int running = state.running.get();
+            if (running >= perhost) {
+                return false;
+            }
+            if (state.running.compareAndSet(running, running + 1)) {
+                return true;
+            }
+        }
+    }
+
+    private static class Host {
+        private final AtomicInteger running = new AtomicInteger();
+        private final Queue<Runnable> pending = new ConcurrentLinkedQueue<>();
+    }
+}
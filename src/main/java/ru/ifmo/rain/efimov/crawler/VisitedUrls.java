@@ -0,0 +1,140 @@
+package ru.ifmo.rain.efimov.crawler;
+
+/**
+ * Set of seen pages which keeps 64-bit fingerprints of urls instead of the urls: 16 to 32 bytes
+ * per url in open-addressing tables and about 2 bytes in Bloom filters, instead of a string and a map node.
+ * <br/><br/>
+ * Fingerprints are spread between segments, each segment has a table of fingerprints with linear probing
+ * and a Bloom filter in front of it: a url the filter has never seen is inserted at once without comparing
+ * fingerprints, only urls which may have been seen are looked up. Both grow together when the table
+ * is half full, the filter is rebuilt from the fingerprints. <br/>
+ * Two urls are taken for the same page only if their fingerprints collide, which for a million urls
+ * happens with probability about 3e-8. <br/>
+ * Thread-safe, each segment is locked separately.
+ */
+class VisitedUrls {
+    private static final int SEGMENT_BITS = 4;
+    private static final int INITIAL_CAPACITY = 64;
+    private static final int BLOOM_BITS_PER_SLOT = 4;
+    private static final int BLOOM_HASHES = 3;
+    private static final long EMPTY = 0;
+
+    private final Segment[] segments = new Segment[1 << SEGMENT_BITS];
+
+    VisitedUrls() {
+        for (int i = 0; i < segments.length; i++) {
+            segments[i] = new Segment();
+        }
+    }
+
+    /**
+     * Adds the url and returns true if it was not seen before, in one lookup.
+     */
+    boolean add(String url) {
+        long fingerprint = fingerprint(url);
+        Segment segment = segments[(int) (fingerprint >>> (Long.SIZE - SEGMENT_BITS))];
+        synchronized (segment) {
+            return segment.add(fingerprint);
+        }
+    }
+
+    int size() {
+        int size = 0;
+        for (Segment segment : segments) {
+            synchronized (segment) {
+                size += segment.size;
+            }
+        }
+        return size;
+    }
+
+    /**
+     * FNV-1a over chars, finished by the MurmurHash3 mixer so that all bits depend on all chars.
+     * Empty value is reserved for free slots.
+     */
+    static long fingerprint(String url) {
+        long hash = 0xcbf29ce484222325L;
+        for (int i = 0; i < url.length(); i++) {
+            hash = (hash ^ url.charAt(i)) * 0x100000001b3L;
+        }
+        hash ^= hash >>> 33;
+        hash *= 0xff51afd7ed558ccdL;
+        hash ^= hash >>> 33;
+        hash *= 0xc4ceb9fe1a85ec53L;
+        hash ^= hash >>> 33;
+        return hash == EMPTY ? 1 : hash;
+    }
+
+    private static class Segment {
+        private long[] table = new long[INITIAL_CAPACITY];
+        private long[] bloom = new long[INITIAL_CAPACITY * BLOOM_BITS_PER_SLOT / Long.SIZE];
+        private int size;
+
+        private boolean add(long fingerprint) {
+            if (mightContain(fingerprint) && contains(fingerprint)) {
+                return false;
+            }
+            if (2 * (size + 1) > table.length) {
+                grow();
+            }
+            insert(fingerprint);
+            size++;
+            return true;
+        }
+
+        private boolean contains(long fingerprint) {
+            int mask = table.length - 1;
+            for (int i = (int) fingerprint & mask; table[i] != EMPTY; i = (i + 1) & mask) {
+                if (table[i] == fingerprint) {
+                    return true;
+                }
+            }
+            return false;
+        }
+
+        private void insert(long fingerprint) {
+            int mask = table.length - 1;
+            int i = (int) fingerprint & mask;
+            while (table[i] != EMPTY) {
+                i = (i + 1) & mask;
+            }
+            table[i] = fingerprint;
+            int bits = bloom.length * Long.SIZE;
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                int bit = bloomBit(fingerprint, k, bits);
+                bloom[bit >>> 6] |= 1L << bit;
+            }
+        }
+
+        private boolean mightContain(long fingerprint) {
+            int bits = bloom.length * Long.SIZE;
+            for (int k = 0; k < BLOOM_HASHES; k++) {
+                int bit = bloomBit(fingerprint, k, bits);
+                if ((bloom[bit >>> 6] & (1L << bit)) == 0) {
+                    return false;
+                }
+            }
+            return true;
+        }
+
+        private void grow() {
+            long[] old = table;
+            table = new long[old.length * 2];
+            bloom = new long[table.length * BLOOM_BITS_PER_SLOT / Long.SIZE];
+            for (long fingerprint : old) {
+                if (fingerprint != EMPTY) {
+                    insert(fingerprint);
+                }
+            }
+        }
+
+        /**
+         * Double hashing of the upper half of the fingerprint, the lower half places it in the table.
+         */
+        private static int bloomBit(long fingerprint, int k, int bits) {
+            int h1 = (int) (fingerprint >>> 32);
+            int h2 = (int) (fingerprint >>> 16) | 1;
+            return (h1 + k * h2) & (bits - 1);
+        }
+    }
+}
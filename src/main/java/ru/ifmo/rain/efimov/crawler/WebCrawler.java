@@ -6,18 +6,39 @@ import info.kgeorgiy.java.advanced.crawler.Downloader;
 import info.kgeorgiy.java.advanced.crawler.Result;
 
 import java.io.IOException;
-import java.util.concurrent.ExecutorService;
-import java.util.concurrent.Executors;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Path;
+import java.security.MessageDigest;
+import java.security.NoSuchAlgorithmException;
+import java.util.Set;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
 
 /**
  * Thread-safe WebCrawler class that recurse bypass sites
+ * <br/><br/>
+ * Each crawl keeps a bounded number of found pages in memory, others are spilled to disk,
+ * see {@link CrawlFrontier}. With a state directory each crawl is journaled in its subdirectory
+ * named by SHA-256 digest of url and depth, and the same crawl started after a restart continues from its journal.
+ * Journal of a complete crawl is removed.
+ * <br/>
+ * Crawls share a {@link PageCache}: pages crawled recently or being crawled by another call
+ * are not downloaded again.
+ * <br/>
+ * Download and extractor threads are shared between concurrent crawls by their weights,
+ * see {@link CrawlScheduler}; a host gives a crawl a slot only within its per-host limit.
  */
 public class WebCrawler implements Crawler {
-
+    public static final int DEFAULT_FRONTIER_MEMORY = 1 << 14;
+    public static final int DEFAULT_CACHE_SIZE = 1 << 14;
+    public static final long DEFAULT_CACHE_TTL = 60;
     private final TasksPerHostManager tasksPerHostManager;
     private final Downloader downloader;
-    private final ExecutorService downloadersPool;
-    private final ExecutorService extractorsPool;
+    private final CrawlScheduler scheduler;
+    private final int frontierMemory;
+    private final Path stateDirectory;
+    private final Set<Path> journaledActs = ConcurrentHashMap.newKeySet();
+    private final PageCache cache;
 
     /**
      * @param downloader  allows to downloadAct pages and extract links from them; <br/>
@@ -26,10 +47,41 @@ public class WebCrawler implements Crawler {
      * @param perHost     is the maximum number of pages simultaneously loaded from a single host. <br/>
      */
     public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost) {
+        this(downloader, downloaders, extractors, perHost, DEFAULT_FRONTIER_MEMORY, null);
+    }
+
+    public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost,
+                      int frontierMemory, Path stateDirectory) {
+        this(downloader, downloaders, extractors, perHost, frontierMemory, stateDirectory,
+                DEFAULT_CACHE_SIZE, DEFAULT_CACHE_TTL);
+    }
+
+    /**
+     * @param downloader     allows to downloadAct pages and extract links from them; <br/>
+     * @param downloaders    the maximum number of simultaneously loaded pages; <br/>
+     * @param extractors     the maximum number of pages from which links are extracted; <br/>
+     * @param perHost        is the maximum number of pages simultaneously loaded from a single host; <br/>
+     * @param frontierMemory found pages kept in memory by a crawl, also the maximum number of its pages in progress; <br/>
+     * @param stateDirectory directory of crawl journals, or null to crawl without resuming; <br/>
+     * @param cacheSize      pages kept in the cache shared by crawls, 0 to disable it; <br/>
+     * @param cacheTtl       seconds to keep a page in the cache. <br/>
+     */
+    public WebCrawler(Downloader downloader, int downloaders, int extractors, int perHost,
+                      int frontierMemory, Path stateDirectory, int cacheSize, long cacheTtl) {
+        if (frontierMemory < 1) {
+            throw new IllegalArgumentException("Frontier memory must be positive: " + frontierMemory);
+        }
+        if (cacheSize < 0 || cacheTtl < 0) {
+            throw new IllegalArgumentException("Cache size and time to live must not be negative: "
+                    + cacheSize + ", " + cacheTtl);
+        }
+        this.cache = new PageCache(cacheSize, TimeUnit.SECONDS.toNanos(cacheTtl));
+        this.frontierMemory = frontierMemory;
+        this.stateDirectory = stateDirectory;
         this.downloader = downloader;
-        this.downloadersPool = Executors.newFixedThreadPool(downloaders);
-        this.extractorsPool = Executors.newFixedThreadPool(extractors);
-        this.tasksPerHostManager = new TasksPerHostManager(perHost, downloadersPool);
+        this.scheduler = new CrawlScheduler(downloaders, extractors);
+        // permitted task only joins the queue of its crawl, which is cheap enough to do in place
+        this.tasksPerHostManager = new TasksPerHostManager(perHost, Runnable::run);
     }
 
     /**
@@ -41,7 +93,46 @@ public class WebCrawler implements Crawler {
      */
     @Override
     public Result download(String url, int depth) {
-        return new CrawlerDownloadAct(downloader, extractorsPool, tasksPerHostManager).downloadAct(url, depth);
+        return download(url, depth, 1);
+    }
+
+    /**
+     * Crawls like {@link #download(String, int)}, and while other crawls run concurrently
+     * gets a share of threads proportional to the weight.
+     *
+     * @param weight positive weight of the crawl, 1 by default
+     */
+    public Result download(String url, int depth, int weight) {
+        CrawlScheduler.Flow flow = scheduler.flow(weight);
+        Path journal = null == stateDirectory ? null
+                : stateDirectory.resolve(journalName(url, depth));
+        boolean journaled = null != journal && journaledActs.add(journal);
+        try {
+            CrawlFrontier frontier = new CrawlFrontier(frontierMemory, journaled ? journal : null);
+            return new CrawlerDownloadAct(downloader, flow, tasksPerHostManager, frontier, cache,
+                    frontierMemory).downloadAct(url, depth);
+        } finally {
+            if (journaled) {
+                journaledActs.remove(journal);
+            }
+        }
+    }
+
+    /**
+     * Name of the journal directory of a crawl: a strong digest, so different crawls never share a journal.
+     */
+    private static String journalName(String url, int depth) {
+        try {
+            byte[] digest = MessageDigest.getInstance("SHA-256")
+                    .digest((url + '\n' + depth).getBytes(StandardCharsets.UTF_8));
+            StringBuilder name = new StringBuilder(2 * digest.length);
+            for (byte b : digest) {
+                name.append(String.format("%02x", b));
+            }
+            return name.toString();
+        } catch (NoSuchAlgorithmException e) {
+            throw new AssertionError("SHA-256 is required of every Java platform", e);
+        }
     }
 
     /**
@@ -49,34 +140,72 @@ public class WebCrawler implements Crawler {
      */
     @Override
     public void close() {
-        downloadersPool.shutdownNow();
-        extractorsPool.shutdownNow();
+        scheduler.shutdownNow();
     }
 
     public static void main(String[] args) {
-        if (null == args  || args.length == 0 || args.length > 5) {
-            System.out.println("Command format: " +
-                    "\n\tWebCrawler url [depth [downloads [extractors [perHost]]]]" +
-                    "\nURL must have protocol, example: http://kgeorgiy.info/");
+        String commandFormat = "Command format: " +
+                "\n\tWebCrawler [-frontier <pages>] [-state <directory>] [-cache <pages>] [-ttl <seconds>] url [depth [downloads [extractors [perHost]]]]" +
+                "\nURL must have protocol, example: http://kgeorgiy.info/";
+        if (null == args  || args.length == 0) {
+            System.out.println(commandFormat);
+            return;
+        }
+        int frontierMemory = DEFAULT_FRONTIER_MEMORY;
+        Path stateDirectory = null;
+        int cacheSize = DEFAULT_CACHE_SIZE;
+        long cacheTtl = DEFAULT_CACHE_TTL;
+        int i = 0;
+        for (; i < args.length && args[i].startsWith("-"); i += 2) {
+            if (i + 1 == args.length) {
+                System.out.println(commandFormat);
+                return;
+            }
+            try {
+                switch (args[i]) {
+                    case "-frontier":
+                        frontierMemory = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "-state":
+                        stateDirectory = Path.of(args[i + 1]);
+                        break;
+                    case "-cache":
+                        cacheSize = Integer.parseInt(args[i + 1]);
+                        break;
+                    case "-ttl":
+                        cacheTtl = Long.parseLong(args[i + 1]);
+                        break;
+                    default:
+                        System.out.println(commandFormat);
+                        return;
+                }
+            } catch (NumberFormatException e) {
+                System.out.println("Error, wrong number format: " + e.getMessage());
+                return;
+            }
+        }
+        if (i == args.length || args.length - i > 5) {
+            System.out.println(commandFormat);
             return;
         }
-        String target = args[0];
+        String target = args[i];
         int depth = 2;
         int downloads = Integer.MAX_VALUE;
         int extractors = Integer.MAX_VALUE;
         int perHost = Integer.MAX_VALUE;
         try {
-            depth = Integer.parseInt(args[1]);
-            downloads = Integer.parseInt(args[2]);
-            extractors = Integer.parseInt(args[3]);
-            perHost = Integer.parseInt(args[4]);
+            depth = Integer.parseInt(args[i + 1]);
+            downloads = Integer.parseInt(args[i + 2]);
+            extractors = Integer.parseInt(args[i + 3]);
+            perHost = Integer.parseInt(args[i + 4]);
         } catch (NumberFormatException e) {
             System.out.println("Error, wrong number format: " + e.getMessage());
             return;
         } catch (ArrayIndexOutOfBoundsException ignored) {
         }
 
-        try (Crawler crawler = new WebCrawler(new CachingDownloader(), downloads, extractors, perHost)) {
+        try (Crawler crawler = new WebCrawler(new CachingDownloader(), downloads, extractors, perHost,
+                frontierMemory, stateDirectory, cacheSize, cacheTtl)) {
             crawler.download(target, depth).getDownloaded().forEach(System.out::println);
         } catch (IOException e) {
             System.out.println("Cannot create temp dir: " + e.getMessage());
@@ -0,0 +1,332 @@
+package ru.ifmo.rain.efimov.hello;
+
+import ru.ifmo.rain.efimov.metrics.LatencyHistogram;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Load generator for the hello protocol: sends requests for the given time without printing them
+ * and reports throughput, loss, retransmissions and latency percentiles.
+ * <br/><br/>
+ * Open loop sends requests at the target rate whatever the answers are. Latency is counted
+ * from the time the request was scheduled, so a stalled server is not hidden by sending less.
+ * Closed loop keeps the given number of requests in flight and sends the next one on each answer.
+ * Lost requests are sent again by the same {@link RequestChannel} as in {@link HelloNioUDPClient},
+ * latency includes retransmissions.
+ * <br/>
+ * Requests sent during warm-up are answered but not counted. After the duration no new requests are sent,
+ * and requests still not answered after the maximal retransmission timeout are counted as lost.
+ * Answers received after the duration count for latency and loss, but not for throughput.
+ * <br/><br/>
+ * <b>Command format:</b> HelloLoadGenerator (-rate 'requests per second' | -concurrency 'requests')
+ * [-warmup 'seconds'] [-duration 'seconds'] [-io 'threads'] [-rto-min 'milliseconds'] [-rto-max 'milliseconds']
+ * server port prefix
+ * @see HelloUDPServer
+ */
+public class HelloLoadGenerator {
+    private static final String COMMAND_FORMAT = "Command format:" +
+            "\n\tHelloLoadGenerator (-rate <requests per second> | -concurrency <requests>)" +
+            "\n\t\t[-warmup <seconds>] [-duration <seconds>] [-io <threads>]" +
+            "\n\t\t[-rto-min <milliseconds>] [-rto-max <milliseconds>] server port prefix";
+    private static final long NANOS_PER_SECOND = TimeUnit.SECONDS.toNanos(1);
+
+    private final double rate;
+    private final int concurrency;
+    private final long warmupNanos;
+    private final long durationNanos;
+    private final int ioThreads;
+    private final long minTimeout;
+    private final long maxTimeout;
+
+    /**
+     * @param rate        requests per second for open loop, 0 for closed loop; <br/>
+     * @param concurrency requests in flight for closed loop; <br/>
+     * @param warmup      seconds before counting; <br/>
+     * @param duration    seconds of counting; <br/>
+     * @param ioThreads   threads sending requests, each with own channel; <br/>
+     * @param minTimeout  floor of the retransmission timeout in milliseconds; <br/>
+     * @param maxTimeout  ceiling of the retransmission timeout in milliseconds. <br/>
+     */
+    public HelloLoadGenerator(double rate, int concurrency, double warmup, double duration, int ioThreads,
+                              long minTimeout, long maxTimeout) {
+        if (rate < 0 || rate == 0 && concurrency < 1 || warmup < 0 || duration <= 0 || ioThreads < 1) {
+            throw new IllegalArgumentException("Wrong load settings");
+        }
+        RetransmitTimer.checkBounds(minTimeout, maxTimeout);
+        this.rate = rate;
+        this.concurrency = concurrency;
+        this.warmupNanos = (long) (warmup * NANOS_PER_SECOND);
+        this.durationNanos = (long) (duration * NANOS_PER_SECOND);
+        this.ioThreads = rate > 0 ? ioThreads : Math.min(ioThreads, concurrency);
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+    }
+
+    public static void main(String[] args) {
+        if (null == args || args.length < 3) {
+            System.err.println(COMMAND_FORMAT);
+            return;
+        }
+        double rate = 0;
+        int concurrency = 0;
+        double warmup = 1;
+        double duration = 10;
+        int ioThreads = 1;
+        long minTimeout = RetransmitTimer.DEFAULT_MIN_TIMEOUT;
+        long maxTimeout = RetransmitTimer.DEFAULT_MAX_TIMEOUT;
+        int i = 0;
+        String server;
+        int port;
+        String prefix;
+        try {
+            for (; i < args.length - 3; i++) {
+                switch (args[i]) {
+                    case "-rate":
+                        rate = Double.parseDouble(args[++i]);
+                        break;
+                    case "-concurrency":
+                        concurrency = Integer.parseInt(args[++i]);
+                        break;
+                    case "-warmup":
+                        warmup = Double.parseDouble(args[++i]);
+                        break;
+                    case "-duration":
+                        duration = Double.parseDouble(args[++i]);
+                        break;
+                    case "-io":
+                        ioThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-rto-min":
+                        minTimeout = Long.parseLong(args[++i]);
+                        break;
+                    case "-rto-max":
+                        maxTimeout = Long.parseLong(args[++i]);
+                        break;
+                    default:
+                        System.err.println(COMMAND_FORMAT);
+                        return;
+                }
+            }
+            server = args[i];
+            port = Integer.parseInt(args[i + 1]);
+            prefix = args[i + 2];
+        } catch (NumberFormatException e) {
+            System.err.println("Error, wrong number format: " + e.getMessage());
+            return;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.err.println(COMMAND_FORMAT);
+            return;
+        }
+        if (rate > 0 == concurrency > 0) {
+            System.err.println(COMMAND_FORMAT);
+            return;
+        }
+        try {
+            HelloLoadGenerator generator = new HelloLoadGenerator(rate, concurrency, warmup, duration, ioThreads,
+                    minTimeout, maxTimeout);
+            System.out.println(generator.run(server, port, prefix));
+        } catch (IllegalArgumentException | IOException e) {
+            System.err.println(e.getMessage());
+        } catch (InterruptedException ignored) {
+        }
+    }
+
+    public Report run(String host, int port, String prefix) throws IOException, InterruptedException {
+        InetSocketAddress serverAddress = new InetSocketAddress(host, port);
+        RetransmitTimer timer = new RetransmitTimer(minTimeout, maxTimeout);
+        Report report = new Report(durationNanos);
+        long start = System.nanoTime();
+        ExecutorService executor = Executors.newFixedThreadPool(ioThreads);
+        try {
+            List<Future<Report>> loops = new ArrayList<>();
+            for (int i = 0; i < ioThreads; i++) {
+                LoadLoop loop = new LoadLoop(serverAddress, prefix + i + "_", timer, start, i);
+                loops.add(executor.submit(loop::run));
+            }
+            for (Future<Report> loop : loops) {
+                try {
+                    report.add(loop.get());
+                } catch (ExecutionException e) {
+                    throw new IOException("Load loop failed: " + e.getCause().getMessage(), e.getCause());
+                }
+            }
+        } finally {
+            executor.shutdownNow();
+        }
+        return report;
+    }
+
+    /**
+     * Counters and latencies of measured requests.
+     */
+    public static class Report {
+        private final long durationNanos;
+        private final LatencyHistogram latencies = new LatencyHistogram();
+        private long sent;
+        private long answered;
+        private long answeredInDuration;
+        private long lost;
+        private long retransmissions;
+
+        private Report(long durationNanos) {
+            this.durationNanos = durationNanos;
+        }
+
+        private void add(Report other) {
+            sent += other.sent;
+            answered += other.answered;
+            answeredInDuration += other.answeredInDuration;
+            lost += other.lost;
+            retransmissions += other.retransmissions;
+            latencies.add(other.latencies);
+        }
+
+        /**
+         * Answers received during the duration per second.
+         */
+        public double throughput() {
+            return answeredInDuration * (double) NANOS_PER_SECOND / durationNanos;
+        }
+
+        public double lossRate() {
+            return sent == 0 ? 0 : (double) lost / sent;
+        }
+
+        @Override
+        public String toString() {
+            return String.format("Requests: sent %d, answered %d (%d in duration), lost %d (%.3f%%), retransmissions %d%n"
+                            + "Throughput: %.1f requests/s%n"
+                            + "Latency, us: p50 %.1f, p90 %.1f, p99 %.1f, p999 %.1f, max %.1f",
+                    sent, answered, answeredInDuration, lost, lossRate() * 100, retransmissions, throughput(),
+                    micros(latencies.percentile(0.5)), micros(latencies.percentile(0.9)),
+                    micros(latencies.percentile(0.99)), micros(latencies.percentile(0.999)),
+                    micros(latencies.max()));
+        }
+
+        private static double micros(long nanos) {
+            return nanos / 1e3;
+        }
+    }
+
+    private static class LoadRequest extends RequestChannel.Request {
+        private final long scheduledAt;
+        private final boolean measured;
+
+        private LoadRequest(String text, long scheduledAt, boolean measured) {
+            super(text);
+            this.scheduledAt = scheduledAt;
+            this.measured = measured;
+        }
+    }
+
+    /**
+     * Sends requests of one thread through its own channel.
+     */
+    private class LoadLoop {
+        private final String msgWithoutReqNum;
+        private final RequestChannel<LoadRequest> channel;
+        private final long measureStart;
+        private final long measureEnd;
+        private final long intervalNanos;
+        private final int window;
+        private final Report report = new Report(durationNanos);
+        private long nextScheduled;
+        private int next;
+
+        private LoadLoop(InetSocketAddress serverAddress, String msgWithoutReqNum, RetransmitTimer timer,
+                         long start, int index) throws IOException {
+            this.msgWithoutReqNum = msgWithoutReqNum;
+            this.measureStart = start + warmupNanos;
+            this.measureEnd = measureStart + durationNanos;
+            this.intervalNanos = rate > 0 ? (long) (NANOS_PER_SECOND * ioThreads / rate) : 0;
+            this.window = concurrency / ioThreads + (index < concurrency % ioThreads ? 1 : 0);
+            this.nextScheduled = start + index * intervalNanos / ioThreads;
+            this.channel = new RequestChannel<>(serverAddress, timer);
+        }
+
+        private Report run() throws IOException {
+            try (channel) {
+                long drainEnd = measureEnd + TimeUnit.MILLISECONDS.toNanos(maxTimeout);
+                for (long now = System.nanoTime(); now < measureEnd || channel.inFlight() > 0 && now < drainEnd;
+                     now = System.nanoTime()) {
+                    if (now < measureEnd) {
+                        sendNew(now);
+                    }
+                    long timeout = selectTimeout(System.nanoTime(), drainEnd);
+                    if (timeout == 0) {
+                        Thread.yield();
+                    }
+                    channel.await(timeout);
+                    channel.receive(this::answer);
+                    channel.retransmit();
+                    if (Thread.currentThread().isInterrupted()) {
+                        break;
+                    }
+                }
+                for (LoadRequest request : channel.inFlightRequests()) {
+                    if (request.measured) {
+                        report.lost++;
+                        report.retransmissions += request.sends - 1;
+                    }
+                }
+            }
+            return report;
+        }
+
+        /**
+         * Open loop sends all requests scheduled up to now, closed loop fills the window.
+         */
+        private void sendNew(long now) {
+            if (intervalNanos > 0) {
+                for (; nextScheduled <= now; nextScheduled += intervalNanos) {
+                    channel.send(newRequest(nextScheduled));
+                }
+            } else {
+                while (channel.inFlight() < window) {
+                    channel.send(newRequest(now));
+                }
+            }
+        }
+
+        private LoadRequest newRequest(long scheduledAt) {
+            LoadRequest request = new LoadRequest(msgWithoutReqNum + next++, scheduledAt, scheduledAt >= measureStart);
+            if (request.measured) {
+                report.sent++;
+            }
+            return request;
+        }
+
+        private void answer(LoadRequest request, String responseText, long receivedAt) {
+            if (request.measured) {
+                report.answered++;
+                report.retransmissions += request.sends - 1;
+                report.latencies.record(receivedAt - request.scheduledAt);
+                if (receivedAt < measureEnd) {
+                    report.answeredInDuration++;
+                }
+            }
+        }
+
+        /**
+         * Milliseconds until the next scheduled request or retransmission. Less than a millisecond
+         * is 0, then the loop spins yielding to other threads, so requests are not sent later
+         * than scheduled, and the server on the same host still gets the processor.
+         */
+        private long selectTimeout(long now, long drainEnd) {
+            long until = now < measureEnd ? measureEnd : drainEnd;
+            if (intervalNanos > 0 && now < measureEnd) {
+                until = Math.min(until, nextScheduled);
+            }
+            until = Math.min(until, channel.nextDeadline());
+            return Math.max(0, TimeUnit.NANOSECONDS.toMillis(until - now));
+        }
+    }
+}
@@ -0,0 +1,173 @@
+package ru.ifmo.rain.efimov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloClient;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.util.ArrayList;
+import java.util.List;
+import java.util.concurrent.CountDownLatch;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking variant of {@link HelloUDPClient}: each of the threads is a logical sender
+ * with a window of requests in flight, and a few I/O threads serve all senders through selectors.
+ * <br/><br/>
+ * Each I/O thread has one {@link RequestChannel} connected to the server: request which is not answered
+ * in time is sent again on its own, other requests of the window are not delayed.
+ * Requests and responses are printed in the order of answers.
+ * With window larger than one, next requests of a thread are sent before previous are answered,
+ * so it is for load testing, not for servers which check the order of requests.
+ * <br/><br/>
+ * <b>Request and answer formats</b> are the same as of {@link HelloUDPClient}.
+ * @see HelloNioUDPServer
+ */
+public class HelloNioUDPClient implements HelloClient {
+    private final int window;
+    private final int ioThreads;
+    private final long minTimeout;
+    private final long maxTimeout;
+
+    public HelloNioUDPClient() {
+        this(1, 1);
+    }
+
+    public HelloNioUDPClient(int window, int ioThreads) {
+        this(window, ioThreads, RetransmitTimer.DEFAULT_MIN_TIMEOUT, RetransmitTimer.DEFAULT_MAX_TIMEOUT);
+    }
+
+    /**
+     * @param window     requests in flight per sender; <br/>
+     * @param ioThreads  threads serving the senders, not more than senders are used; <br/>
+     * @param minTimeout floor of the retransmission timeout in milliseconds; <br/>
+     * @param maxTimeout ceiling of the retransmission timeout in milliseconds. <br/>
+     */
+    public HelloNioUDPClient(int window, int ioThreads, long minTimeout, long maxTimeout) {
+        if (window < 1 || ioThreads < 1) {
+            throw new IllegalArgumentException("Window and I/O threads must be positive: " + window + ", " + ioThreads);
+        }
+        RetransmitTimer.checkBounds(minTimeout, maxTimeout);
+        this.window = window;
+        this.ioThreads = ioThreads;
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+    }
+
+    @Override
+    public void run(String host, int port, String prefix, int threads, int requests) {
+        InetSocketAddress serverAddress = new InetSocketAddress(host, port);
+        int loops = Math.max(Math.min(ioThreads, threads), 1);
+        List<List<Sender>> senders = new ArrayList<>();
+        for (int i = 0; i < loops; i++) {
+            senders.add(new ArrayList<>());
+        }
+        for (int threadNumber = 0; threadNumber < threads; threadNumber++) {
+            senders.get(threadNumber % loops).add(new Sender(prefix + threadNumber + "_", requests));
+        }
+        ExecutorService executor = Executors.newFixedThreadPool(loops);
+        CountDownLatch countDown = new CountDownLatch(loops);
+        RetransmitTimer timer = new RetransmitTimer(minTimeout, maxTimeout);
+        for (List<Sender> loopSenders : senders) {
+            executor.submit(() -> {
+                try {
+                    new SenderLoop(serverAddress, loopSenders, timer).run();
+                } catch (IOException e) {
+                    System.err.println("Socket error: " + e.getMessage());
+                } finally {
+                    countDown.countDown();
+                }
+            });
+        }
+        try {
+            countDown.await();
+        } catch (InterruptedException ignored) {
+        } finally {
+            executor.shutdownNow();
+        }
+    }
+
+    /**
+     * Logical sender: requests 'prefix' + number, at most a window of them in flight.
+     */
+    private static class Sender {
+        private final String msgWithoutReqNum;
+        private final int requests;
+        private int next;
+        private int inFlight;
+        private int answered;
+
+        private Sender(String msgWithoutReqNum, int requests) {
+            this.msgWithoutReqNum = msgWithoutReqNum;
+            this.requests = requests;
+        }
+
+        private boolean finished() {
+            return answered == requests;
+        }
+    }
+
+    private static class SenderRequest extends RequestChannel.Request {
+        private final Sender sender;
+
+        private SenderRequest(Sender sender, String text) {
+            super(text);
+            this.sender = sender;
+        }
+    }
+
+    /**
+     * Serves senders through one channel until all their requests are answered or the thread is interrupted.
+     */
+    private class SenderLoop {
+        private final List<Sender> senders;
+        private final RequestChannel<SenderRequest> channel;
+        private int unfinished;
+
+        private SenderLoop(InetSocketAddress serverAddress, List<Sender> senders, RetransmitTimer timer)
+                throws IOException {
+            this.senders = senders;
+            this.channel = new RequestChannel<>(serverAddress, timer);
+            unfinished = (int) senders.stream().filter(sender -> !sender.finished()).count();
+        }
+
+        private void run() throws IOException {
+            try (channel) {
+                senders.forEach(this::fillWindow);
+                while (unfinished > 0 && !Thread.currentThread().isInterrupted()) {
+                    channel.await(selectTimeout());
+                    channel.receive(this::answer);
+                    channel.retransmit();
+                }
+            }
+        }
+
+        private void fillWindow(Sender sender) {
+            while (sender.inFlight < window && sender.next < sender.requests) {
+                sender.inFlight++;
+                channel.send(new SenderRequest(sender, sender.msgWithoutReqNum + sender.next++));
+            }
+        }
+
+        private void answer(SenderRequest request, String responseText, long receivedAt) {
+            System.out.println("Request: " + request.text);
+            System.out.println("Response: " + responseText);
+            Sender sender = request.sender;
+            sender.inFlight--;
+            sender.answered++;
+            if (sender.finished()) {
+                unfinished--;
+            } else {
+                fillWindow(sender);
+            }
+        }
+
+        /**
+         * Milliseconds until the nearest retransmission, at least 1, since 0 means only checking the channel.
+         */
+        private long selectTimeout() {
+            return Math.max(1, TimeUnit.NANOSECONDS.toMillis(channel.nextDeadline() - System.nanoTime()));
+        }
+    }
+}
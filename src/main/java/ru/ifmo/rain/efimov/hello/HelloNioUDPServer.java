@@ -0,0 +1,300 @@
+package ru.ifmo.rain.efimov.hello;
+
+import info.kgeorgiy.java.advanced.hello.HelloServer;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.net.SocketAddress;
+import java.net.StandardSocketOptions;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.ArrayList;
+import java.util.Iterator;
+import java.util.List;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Non-blocking variant of {@link HelloUDPServer}: one thread serves a {@link DatagramChannel}
+ * through a {@link Selector}.
+ * <br/><br/>
+ * Requests are received into pooled direct buffers right after the pre-written 'Hello, ' bytes,
+ * so the response is the same buffer from its start: no packets, strings or arrays per request.
+ * Response which cannot be sent at once waits in its buffer until the channel is writable,
+ * receiving is paused while all buffers wait.
+ * <br/>
+ * Answer is only a prefix to received bytes, so it is made on the selector thread
+ * without handoff.
+ * <br/><br/>
+ * In sharded mode the server opens one channel per thread on the same port with SO_REUSEPORT,
+ * so the kernel spreads datagrams between them and each shard receives, answers and sends on its
+ * own thread. Without reuse-port support a single channel is served, the same as unsharded mode.
+ * <br/><br/>
+ * Datagrams are handled in batches: on each wakeup up to batch size ready datagrams are received
+ * into preallocated buffers, then all their answers are sent, and only then the channel is selected again.
+ * <br/>
+ * Received and replied datagrams, errors, latency and filling of batches are counted in {@link ServerMetrics},
+ * average filling of batches is also printed on close.
+ * @see HelloUDPServer
+ */
+public class HelloNioUDPServer implements HelloServer {
+    static final byte[] PREFIX = "Hello, ".getBytes(StandardCharsets.UTF_8);
+    static final int MAX_DATAGRAM_SIZE = 65507;
+    public static final int DEFAULT_BATCH_SIZE = 16;
+    private static final int POOL_SIZE = 64;
+
+    private final boolean sharded;
+    private final int batchSize;
+    private final List<DatagramChannel> channels = new ArrayList<>();
+    private final List<Selector> selectors = new ArrayList<>();
+    private ExecutorService serverThreads;
+    private ServerMetrics metrics;
+
+    public HelloNioUDPServer() {
+        this(false);
+    }
+
+    /**
+     * @param sharded whether to serve a reuse-port channel per thread. <br/>
+     */
+    public HelloNioUDPServer(boolean sharded) {
+        this(sharded, DEFAULT_BATCH_SIZE);
+    }
+
+    /**
+     * @param sharded   whether to serve a reuse-port channel per thread; <br/>
+     * @param batchSize datagrams received before their answers are sent. <br/>
+     */
+    public HelloNioUDPServer(boolean sharded, int batchSize) {
+        if (batchSize < 1) {
+            throw new IllegalArgumentException("Batch size must be positive: " + batchSize);
+        }
+        this.sharded = sharded;
+        this.batchSize = batchSize;
+    }
+
+    @Override
+    public void start(int port, int threads) {
+        if (!channels.isEmpty()) {
+            System.err.println("You cannot restart server");
+            return;
+        }
+        try {
+            int shards = sharded ? shards(threads) : 1;
+            System.out.println("Starting non-blocking server at port " + port + " with " + shards + " shards");
+            serverThreads = Executors.newFixedThreadPool(shards);
+            metrics = new ServerMetrics(shards, null, batchSize);
+            for (int i = 0; i < shards; i++) {
+                Selector selector = Selector.open();
+                selectors.add(selector);
+                DatagramChannel channel = DatagramChannel.open();
+                channels.add(channel);
+                if (shards > 1) {
+                    channel.setOption(StandardSocketOptions.SO_REUSEPORT, true);
+                }
+                channel.bind(new InetSocketAddress(port));
+                channel.configureBlocking(false);
+                SelectionKey key = channel.register(selector, SelectionKey.OP_READ);
+                serverThreads.submit(new ChannelLoop(channel, selector, key, batchSize, metrics));
+            }
+        } catch (IOException e) {
+            System.err.println("Socket error: " + e.getMessage());
+            close();
+        }
+    }
+
+    @Override
+    public void close() {
+        if (null != serverThreads) {
+            serverThreads.shutdownNow();
+            try {
+                serverThreads.awaitTermination(10, TimeUnit.SECONDS);
+            } catch (InterruptedException ignored) {
+            }
+        }
+        channels.forEach(HelloNioUDPServer::closeQuietly);
+        selectors.forEach(HelloNioUDPServer::closeQuietly);
+        if (null != metrics) {
+            metrics.close();
+            if (metrics.getBatches() > 0) {
+                System.out.println(String.format("Served %d datagrams in %d batches, %.2f of %d per batch",
+                        metrics.getReceived(), metrics.getBatches(), metrics.getBatchFill(), batchSize));
+            }
+        }
+    }
+
+    /**
+     * Metrics of the running server, null before start.
+     */
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    private static int shards(int threads) throws IOException {
+        try (DatagramChannel probe = DatagramChannel.open()) {
+            if (probe.supportedOptions().contains(StandardSocketOptions.SO_REUSEPORT)) {
+                return Math.max(threads, 1);
+            }
+        }
+        System.err.println("Warning: SO_REUSEPORT is not supported, serving a single channel");
+        return 1;
+    }
+
+    private static void closeQuietly(AutoCloseable closeable) {
+        if (null == closeable) {
+            return;
+        }
+        try {
+            closeable.close();
+        } catch (Exception e) {
+            System.err.println("Warning (closing): " + e.getMessage());
+        }
+    }
+
+    /**
+     * Receives and answers requests of one channel until interrupted.
+     * Receive times of responses waiting for the channel are kept in a ring next to their queue.
+     */
+    static class ChannelLoop implements Runnable {
+        private final DatagramChannel channel;
+        private final Selector selector;
+        private final SelectionKey key;
+        private final ByteBuffer[] batch;
+        private final SocketAddress[] batchClients;
+        private final long[] batchReceivedAt;
+        private final ArrayDeque<ByteBuffer> pool;
+        private final ArrayDeque<ByteBuffer> pendingResponses;
+        private final ArrayDeque<SocketAddress> pendingClients;
+        private final long[] pendingReceivedAt;
+        private final ServerMetrics metrics;
+        private int pendingHead;
+
+        ChannelLoop(DatagramChannel channel, Selector selector, SelectionKey key, int batchSize,
+                    ServerMetrics metrics) {
+            this.channel = channel;
+            this.selector = selector;
+            this.key = key;
+            this.metrics = metrics;
+            this.batch = new ByteBuffer[batchSize];
+            this.batchClients = new SocketAddress[batchSize];
+            this.batchReceivedAt = new long[batchSize];
+            int poolSize = Math.max(POOL_SIZE, 2 * batchSize);
+            this.pool = new ArrayDeque<>(poolSize);
+            this.pendingResponses = new ArrayDeque<>(poolSize);
+            this.pendingClients = new ArrayDeque<>(poolSize);
+            this.pendingReceivedAt = new long[poolSize];
+            for (int i = 0; i < poolSize; i++) {
+                ByteBuffer buffer = ByteBuffer.allocateDirect(PREFIX.length + MAX_DATAGRAM_SIZE);
+                buffer.put(PREFIX);
+                pool.add(buffer);
+            }
+        }
+
+        @Override
+        public void run() {
+            while (channel.isOpen() && !Thread.currentThread().isInterrupted()) {
+                try {
+                    selector.select();
+                } catch (IOException e) {
+                    System.err.println("Warning (selecting): " + e.getMessage());
+                    continue;
+                }
+                for (Iterator<SelectionKey> it = selector.selectedKeys().iterator(); it.hasNext(); ) {
+                    SelectionKey selected = it.next();
+                    it.remove();
+                    if (selected.isValid() && selected.isWritable()) {
+                        sendPending();
+                    }
+                    if (selected.isValid() && selected.isReadable()) {
+                        receive();
+                    }
+                }
+                if (key.isValid()) {
+                    key.interestOps((pool.isEmpty() ? 0 : SelectionKey.OP_READ)
+                            | (pendingResponses.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+                }
+            }
+        }
+
+        /**
+         * Receives a batch, then sends all its answers.
+         * Prefix is never overwritten: receive starts right after it.
+         */
+        private void receive() {
+            int size = 0;
+            while (size < batch.length && !pool.isEmpty()) {
+                ByteBuffer buffer = pool.peekLast();
+                buffer.clear().position(PREFIX.length);
+                SocketAddress client;
+                try {
+                    client = channel.receive(buffer);
+                } catch (IOException e) {
+                    System.err.println("Warning (receiving): " + e.getMessage());
+                    metrics.receiveError();
+                    break;
+                }
+                if (null == client) {
+                    break;
+                }
+                batchReceivedAt[size] = System.nanoTime();
+                metrics.received();
+                buffer.flip();
+                batch[size] = pool.pollLast();
+                batchClients[size++] = client;
+            }
+            if (size == 0) {
+                return;
+            }
+            metrics.batch(size);
+            for (int i = 0; i < size; i++) {
+                send(batch[i], batchClients[i], batchReceivedAt[i]);
+                batch[i] = null;
+                batchClients[i] = null;
+            }
+        }
+
+        private void send(ByteBuffer response, SocketAddress client, long receivedAt) {
+            if (pendingResponses.isEmpty() && trySend(response, client, receivedAt)) {
+                pool.addLast(response);
+            } else {
+                pendingReceivedAt[(pendingHead + pendingResponses.size()) % pendingReceivedAt.length] = receivedAt;
+                pendingResponses.addLast(response);
+                pendingClients.addLast(client);
+            }
+        }
+
+        private void sendPending() {
+            while (!pendingResponses.isEmpty()) {
+                if (!trySend(pendingResponses.peekFirst(), pendingClients.peekFirst(), pendingReceivedAt[pendingHead])) {
+                    return;
+                }
+                pool.addLast(pendingResponses.pollFirst());
+                pendingClients.pollFirst();
+                pendingHead = (pendingHead + 1) % pendingReceivedAt.length;
+            }
+        }
+
+        /**
+         * @return false if the channel is not ready, response is sent or dropped on error otherwise
+         */
+        private boolean trySend(ByteBuffer response, SocketAddress client, long receivedAt) {
+            long startedAt = System.nanoTime();
+            try {
+                if (channel.send(response, client) == 0) {
+                    return false;
+                }
+            } catch (IOException e) {
+                System.err.println("Warning (sending): " + e.getMessage());
+                metrics.answered(receivedAt, startedAt, false);
+                return true;
+            }
+            metrics.answered(receivedAt, startedAt, true);
+            return true;
+        }
+    }
+}
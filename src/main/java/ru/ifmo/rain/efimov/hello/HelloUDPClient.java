@@ -18,47 +18,138 @@ import java.util.concurrent.Executors;
  * Each thread will wait for the processing of its request and output
  * the request itself and the result of its processing to the console.
  * If the request has not been processed, send it again.
+ * In virtual-thread mode each thread of requests is a virtual thread, so there may be
+ * tens of thousands of them. <br/>
+ * Time to wait for an answer adapts to measured round-trip times, see {@link RetransmitTimer}.
  * <br/><br/>
  * <b>Request text format:</b> 'query prefix' + 'thread number' + '_' + 'query number in thread'<br/>
  * <b>Answer from server format::</b> 'Hello, ' + 'received request text'
+ * <br/><br/>
+ * <b>Command line options</b> before server:<br/>
+ * -nio - send through selectors, see {@link HelloNioUDPClient};<br/>
+ * -window 'requests' - requests in flight per thread in -nio mode, 1 by default;<br/>
+ * -io 'threads' - I/O threads serving all threads in -nio mode, 1 by default;<br/>
+ * -rto-min 'milliseconds', -rto-max 'milliseconds' - bounds of the retransmission timeout;<br/>
+ * -virtual - run each thread of requests on a virtual thread, needs JDK 21.
  * @see HelloUDPServer
  */
 public class HelloUDPClient implements HelloClient {
 
-    private static final int SOCKET_OPERATIONS_TIMEOUT = 1000;
+    private static final String COMMAND_FORMAT = "Command format:" +
+            "\n\tHelloUDPClient [-nio [-window <requests>] [-io <threads>]]" +
+            "\n\t\t[-rto-min <milliseconds>] [-rto-max <milliseconds>] [-virtual] server port prefix threads requests";
+
+    private final long minTimeout;
+    private final long maxTimeout;
+    private final boolean virtualThreads;
+
+    public HelloUDPClient() {
+        this(RetransmitTimer.DEFAULT_MIN_TIMEOUT, RetransmitTimer.DEFAULT_MAX_TIMEOUT);
+    }
+
+    public HelloUDPClient(long minTimeout, long maxTimeout) {
+        this(minTimeout, maxTimeout, false);
+    }
+
+    /**
+     * @param minTimeout     floor of the retransmission timeout in milliseconds; <br/>
+     * @param maxTimeout     ceiling of the retransmission timeout in milliseconds; <br/>
+     * @param virtualThreads whether to run each thread of requests on a virtual thread,
+     *                       platform threads are used if the runtime has no virtual threads. <br/>
+     */
+    public HelloUDPClient(long minTimeout, long maxTimeout, boolean virtualThreads) {
+        RetransmitTimer.checkBounds(minTimeout, maxTimeout);
+        this.minTimeout = minTimeout;
+        this.maxTimeout = maxTimeout;
+        this.virtualThreads = virtualThreads;
+    }
 
     public static void main(String[] args) {
-        if (null == args || args.length != 5) {
-            System.err.println("Command format:" +
-                    "\n\tHelloUDPClient server port prefix threads requests");
+        if (null == args || args.length < 5) {
+            System.err.println(COMMAND_FORMAT);
             return;
         }
+        boolean nio = false;
+        int window = 1;
+        int ioThreads = 1;
+        long minTimeout = RetransmitTimer.DEFAULT_MIN_TIMEOUT;
+        long maxTimeout = RetransmitTimer.DEFAULT_MAX_TIMEOUT;
+        boolean virtualThreads = false;
         String server;
         String prefix;
         int port;
         int threads;
         int requests;
+        int i = 0;
         try {
-            server = args[0];
-            port = Integer.parseInt(args[1]);
-            prefix = args[2];
-            threads = Integer.parseInt(args[3]);
-            requests = Integer.parseInt(args[4]);
+            for (; i < args.length - 5; i++) {
+                switch (args[i]) {
+                    case "-nio":
+                        nio = true;
+                        break;
+                    case "-window":
+                        window = Integer.parseInt(args[++i]);
+                        break;
+                    case "-io":
+                        ioThreads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-rto-min":
+                        minTimeout = Long.parseLong(args[++i]);
+                        break;
+                    case "-rto-max":
+                        maxTimeout = Long.parseLong(args[++i]);
+                        break;
+                    case "-virtual":
+                        virtualThreads = true;
+                        break;
+                    default:
+                        System.err.println(COMMAND_FORMAT);
+                        return;
+                }
+            }
+            server = args[i];
+            port = Integer.parseInt(args[i + 1]);
+            prefix = args[i + 2];
+            threads = Integer.parseInt(args[i + 3]);
+            requests = Integer.parseInt(args[i + 4]);
         } catch (NumberFormatException e) {
             System.err.println("Error, wrong number format: " + e.getMessage());
             return;
+        } catch (ArrayIndexOutOfBoundsException e) {
+            System.err.println(COMMAND_FORMAT);
+            return;
+        }
+        HelloClient client;
+        try {
+            if (nio) {
+                client = new HelloNioUDPClient(window, ioThreads, minTimeout, maxTimeout);
+            } else {
+                client = new HelloUDPClient(minTimeout, maxTimeout, virtualThreads);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
         }
-        new HelloUDPClient().run(server, port, prefix, threads, requests);
+        client.run(server, port, prefix, threads, requests);
     }
 
     @Override
     public void run(String host, int port, String prefix, int threads, int requests) {
         InetSocketAddress serverAddress = new InetSocketAddress(host, port);
-        ExecutorService executor = Executors.newFixedThreadPool(threads);
+        ExecutorService executor;
+        if (virtualThreads && VirtualThreads.supported()) {
+            executor = VirtualThreads.newThreadPerTaskExecutor();
+        } else {
+            if (virtualThreads) {
+                System.err.println("Warning: virtual threads are not supported, using platform threads");
+            }
+            executor = Executors.newFixedThreadPool(threads);
+        }
         CountDownLatch countDown = new CountDownLatch(threads);
+        RetransmitTimer timer = new RetransmitTimer(minTimeout, maxTimeout);
         for (int threadNumber = 0; threadNumber < threads; threadNumber++) {
             String msgWithoutReqNum = prefix + threadNumber + "_";
-            executor.submit(new RequestSender(serverAddress, requests, msgWithoutReqNum, countDown));
+            executor.submit(new RequestSender(serverAddress, requests, msgWithoutReqNum, timer, countDown));
         }
         try {
             countDown.await();
@@ -73,19 +164,21 @@ public class HelloUDPClient implements HelloClient {
         private final InetSocketAddress serverAddress;
         private final int requests;
         private final String msgWithoutReqNum;
+        private final RetransmitTimer timer;
         private CountDownLatch countDown;
 
-        private RequestSender(InetSocketAddress serverAddress, int requests, String msgWithoutReqNum, CountDownLatch countDown) {
+        private RequestSender(InetSocketAddress serverAddress, int requests, String msgWithoutReqNum,
+                              RetransmitTimer timer, CountDownLatch countDown) {
             this.serverAddress = serverAddress;
             this.requests = requests;
             this.msgWithoutReqNum = msgWithoutReqNum;
+            this.timer = timer;
             this.countDown = countDown;
         }
 
         @Override
         public void run() {
             try (DatagramSocket socket = new DatagramSocket()) {
-                socket.setSoTimeout(SOCKET_OPERATIONS_TIMEOUT);
                 for (int requestNumber = 0; requestNumber < requests; requestNumber++) {
                     communicate(requestNumber, socket);
                 }
@@ -100,11 +193,15 @@ public class HelloUDPClient implements HelloClient {
         private void communicate(int requestNumber, DatagramSocket socket) throws SocketException, InterruptedException {
             var requestText = msgWithoutReqNum + requestNumber;
             int bufferSize = socket.getReceiveBufferSize();
-            var sendPacket = new DatagramPacket(requestText.getBytes(StandardCharsets.UTF_8), requestText.length(), serverAddress);
+            byte[] requestBytes = requestText.getBytes(StandardCharsets.UTF_8);
+            var sendPacket = new DatagramPacket(requestBytes, requestBytes.length, serverAddress);
             var receivePacket = new DatagramPacket(new byte[bufferSize], bufferSize);
             boolean interrupted;
-            while (!(interrupted = Thread.interrupted())) {
+            for (int retransmissions = 0; !(interrupted = Thread.interrupted()); retransmissions++) {
+                long sentAt;
                 try {
+                    socket.setSoTimeout(timer.timeoutMillis(retransmissions));
+                    sentAt = System.nanoTime();
                     socket.send(sendPacket);
                     socket.receive(receivePacket);
                 } catch (IOException e) {
@@ -114,6 +211,9 @@ public class HelloUDPClient implements HelloClient {
                 String responseText = new String(receivePacket.getData(), receivePacket.getOffset(),
                         receivePacket.getLength(), StandardCharsets.UTF_8);
                 if (responseText.contains(requestText)) {
+                    if (retransmissions == 0) {
+                        timer.sample(System.nanoTime() - sentAt);
+                    }
                     System.out.println("Request: " + requestText);
                     System.out.println("Response: " + responseText);
                     break;
@@ -2,42 +2,204 @@ package ru.ifmo.rain.efimov.hello;
 
 import info.kgeorgiy.java.advanced.hello.HelloServer;
 
+import javax.management.JMException;
 import java.io.IOException;
 import java.net.DatagramPacket;
 import java.net.DatagramSocket;
 import java.net.SocketException;
-import java.nio.charset.StandardCharsets;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
 import java.util.concurrent.ExecutorService;
 import java.util.concurrent.Executors;
+import java.util.concurrent.RejectedExecutionException;
 import java.util.concurrent.TimeUnit;
 
 /**
  * Accept and respond to requests sent by the Hello UDPClient class.
+ * <br/><br/>
+ * Received packets are handed to worker threads through a bounded {@link PacketRing}.
+ * When the ring is full, the {@link OverloadPolicy} decides what happens to the new packet,
+ * so a flood of requests costs dropped packets, not memory.
+ * <br/>
+ * In virtual-thread mode each packet is answered on its own virtual thread instead of a worker,
+ * the ring still bounds the number of packets in process.
+ * <br/>
+ * Received, replied and dropped packets, errors, queue depth, worker utilization and processing
+ * latency are counted in {@link ServerMetrics}.
+ * <br/>
+ * Answers are built from bytes by a {@link ResponseEncoder} of the answering thread,
+ * in virtual-thread mode encoders are pooled.
+ * <br/><br/>
+ * <b>Command line options</b> before port and threads:<br/>
+ * -nio - serve through a selector, see {@link HelloNioUDPServer};<br/>
+ * -shards - serve a reuse-port channel per thread through selectors;<br/>
+ * -batch 'datagrams' - batch size of -nio and -shards modes;<br/>
+ * -overload 'policy' - drop-newest, drop-oldest or inline, inline by default;<br/>
+ * -queue 'packets' - capacity of the hand-off ring, 16 per thread by default;<br/>
+ * -virtual - answer each packet on a virtual thread, needs JDK 21, not with drop-oldest;<br/>
+ * -stats 'seconds' - print metrics to standard error with this period and at the end,
+ * and publish them over JMX, in any mode.<br/>
+ * -overload, -queue and -virtual apply only to the blocking server and -batch only to -nio and -shards,
+ * options of the other mode are rejected.
  * @see HelloUDPClient
  */
 public class HelloUDPServer implements HelloServer {
+    private static final int QUEUE_CAPACITY_PER_THREAD = 16;
+    private static final String COMMAND_FORMAT = "Command format:" +
+            "\n\tHelloUDPServer [(-nio | -shards) [-batch <datagrams>] | [-overload <policy>] [-queue <packets>] [-virtual]] [-stats <seconds>] port threads";
 
+    /**
+     * What to do with a received packet when the hand-off ring is full.
+     */
+    public enum OverloadPolicy {
+        /**
+         * Packet is not answered.
+         */
+        DROP_NEWEST,
+        /**
+         * The oldest waiting packet is not answered, the new one takes its place.
+         */
+        DROP_OLDEST,
+        /**
+         * Receive thread answers the packet itself, so receiving slows down to the speed of answering.
+         */
+        INLINE;
+
+        public static OverloadPolicy forName(String name) {
+            return valueOf(name.toUpperCase().replace('-', '_'));
+        }
+    }
+
+    private final OverloadPolicy overloadPolicy;
+    private final int queueCapacity;
+    private final boolean virtualThreads;
     private ExecutorService serverThread;
-    private ExecutorService sendPool;
+    private ExecutorService workers;
     private DatagramSocket socket;
-    private int bufferSize;
+    private PacketRing ring;
+    private ServerMetrics metrics;
+    private BlockingQueue<ResponseEncoder> encoders;
+    private boolean perPacketThreads;
+
+    public HelloUDPServer() {
+        this(OverloadPolicy.INLINE, 0);
+    }
+
+    public HelloUDPServer(OverloadPolicy overloadPolicy, int queueCapacity) {
+        this(overloadPolicy, queueCapacity, false);
+    }
+
+    /**
+     * @param overloadPolicy what to do with packets when the ring is full; <br/>
+     * @param queueCapacity  packets in the ring, 0 for default, at least threads + 1 is used; <br/>
+     * @param virtualThreads whether to answer each packet on a virtual thread,
+     *                       worker threads are used if the runtime has no virtual threads;
+     *                       packets are not queued for virtual threads, so they can't be
+     *                       used with {@link OverloadPolicy#DROP_OLDEST}. <br/>
+     */
+    public HelloUDPServer(OverloadPolicy overloadPolicy, int queueCapacity, boolean virtualThreads) {
+        if (virtualThreads && overloadPolicy == OverloadPolicy.DROP_OLDEST) {
+            throw new IllegalArgumentException("Packets answered on virtual threads don't wait in the ring, so the oldest can't be dropped");
+        }
+        this.overloadPolicy = overloadPolicy;
+        this.queueCapacity = queueCapacity;
+        this.virtualThreads = virtualThreads;
+    }
 
     public static void main(String[] args) {
-        if (null == args || args.length != 2) {
-            System.err.println("Command format:" +
-                    "\n\tHelloUDPServer port threads");
+        if (null == args || args.length < 2) {
+            System.err.println(COMMAND_FORMAT);
             return;
         }
+        String mode = null;
+        OverloadPolicy overloadPolicy = OverloadPolicy.INLINE;
+        int queueCapacity = 0;
+        boolean virtualThreads = false;
+        int batchSize = HelloNioUDPServer.DEFAULT_BATCH_SIZE;
+        String blockingOption = null;
+        String nioOption = null;
+        long statsPeriod = 0;
         int port;
         int threads;
+        int i = 0;
         try {
-            port = Integer.parseInt(args[0]);
-            threads = Integer.parseInt(args[1]);
+            for (; i < args.length - 2; i++) {
+                switch (args[i]) {
+                    case "-nio":
+                    case "-shards":
+                        if (null != mode && !mode.equals(args[i])) {
+                            System.err.println("Error, " + mode + " and " + args[i] + " are exclusive");
+                            return;
+                        }
+                        mode = args[i];
+                        break;
+                    case "-overload":
+                        blockingOption = args[i];
+                        overloadPolicy = OverloadPolicy.forName(args[++i]);
+                        break;
+                    case "-queue":
+                        blockingOption = args[i];
+                        queueCapacity = Integer.parseInt(args[++i]);
+                        break;
+                    case "-virtual":
+                        blockingOption = args[i];
+                        virtualThreads = true;
+                        break;
+                    case "-batch":
+                        nioOption = args[i];
+                        batchSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "-stats":
+                        statsPeriod = Long.parseLong(args[++i]);
+                        if (statsPeriod < 1) {
+                            System.err.println("Error, statistics period must be positive: " + statsPeriod);
+                            return;
+                        }
+                        break;
+                    default:
+                        System.err.println(COMMAND_FORMAT);
+                        return;
+                }
+            }
+            port = Integer.parseInt(args[i]);
+            threads = Integer.parseInt(args[i + 1]);
         } catch (NumberFormatException e) {
             System.err.println("Error, wrong number format: " + e.getMessage());
             return;
+        } catch (IllegalArgumentException | ArrayIndexOutOfBoundsException e) {
+            System.err.println(COMMAND_FORMAT);
+            return;
+        }
+        if (null != mode && null != blockingOption) {
+            System.err.println("Error, " + blockingOption + " doesn't apply to " + mode);
+            return;
+        }
+        if (null == mode && null != nioOption) {
+            System.err.println("Error, " + nioOption + " applies only to -nio and -shards");
+            return;
+        }
+        HelloServer server;
+        try {
+            if (null == mode) {
+                server = new HelloUDPServer(overloadPolicy, queueCapacity, virtualThreads);
+            } else {
+                server = new HelloNioUDPServer(mode.equals("-shards"), batchSize);
+            }
+        } catch (IllegalArgumentException e) {
+            System.err.println(e.getMessage());
+            return;
+        }
+        server.start(port, threads);
+        ServerMetrics serverMetrics = server instanceof HelloUDPServer
+                ? ((HelloUDPServer) server).metrics() : ((HelloNioUDPServer) server).metrics();
+        if (statsPeriod > 0 && null != serverMetrics) {
+            try {
+                serverMetrics.start(port, statsPeriod, System.err);
+            } catch (JMException e) {
+                System.err.println("Warning (registering metrics): " + e.getMessage());
+            }
+            Runtime.getRuntime().addShutdownHook(new Thread(() -> System.err.println(serverMetrics.summary())));
         }
-        new HelloUDPServer().start(port, threads);
     }
 
     @Override
@@ -48,52 +210,154 @@ public class HelloUDPServer implements HelloServer {
             System.out.println("Starting server at port " + port + " with " + threads + " threads");
         }
         serverThread = Executors.newSingleThreadExecutor();
-        sendPool = Executors.newFixedThreadPool(threads);
+        perPacketThreads = virtualThreads && VirtualThreads.supported();
+        if (virtualThreads && !perPacketThreads) {
+            System.err.println("Warning: virtual threads are not supported, using " + threads + " worker threads");
+        }
+        workers = perPacketThreads ? VirtualThreads.newThreadPerTaskExecutor() : Executors.newFixedThreadPool(threads);
         try {
             socket = new DatagramSocket(port);
-            bufferSize = socket.getReceiveBufferSize();
+            int bufferSize = Math.min(socket.getReceiveBufferSize(), HelloNioUDPServer.MAX_DATAGRAM_SIZE);
+            int capacity = queueCapacity > 0 ? queueCapacity : threads * QUEUE_CAPACITY_PER_THREAD;
+            ring = new PacketRing(Math.max(capacity, threads + 1), bufferSize,
+                    overloadPolicy == OverloadPolicy.DROP_OLDEST);
         } catch (SocketException e) {
             System.err.println("Socket error: " + e.getMessage());
         }
+        metrics = new ServerMetrics(threads, ring, 0);
+        if (perPacketThreads && null != ring) {
+            encoders = new ArrayBlockingQueue<>(ring.capacity());
+        }
+        for (int i = 0; i < threads && !perPacketThreads; i++) {
+            workers.submit(new Worker());
+        }
         serverThread.submit(new ServerRunnable());
     }
 
     @Override
     public void close() {
         serverThread.shutdownNow();
-        sendPool.shutdownNow();
+        workers.shutdownNow();
+        socket.close();
         try {
             serverThread.awaitTermination(10, TimeUnit.SECONDS);
-            sendPool.awaitTermination(10, TimeUnit.SECONDS);
+            workers.awaitTermination(10, TimeUnit.SECONDS);
         } catch (InterruptedException ignored) {
         }
-        socket.close();
+        metrics.close();
+        long dropped = droppedPackets();
+        if (dropped > 0) {
+            System.err.println("Warning: " + dropped + " packets dropped on overload");
+        }
+    }
+
+    /**
+     * Metrics of the running server, null before start.
+     */
+    public ServerMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Number of received packets which were not answered because of overload.
+     */
+    public long droppedPackets() {
+        return null == metrics ? 0 : metrics.getDropped();
+    }
+
+    private void answer(DatagramPacket receivePacket, long receivedAt, ResponseEncoder encoder) {
+        long startedAt = System.nanoTime();
+        try {
+            socket.send(encoder.encode(receivePacket));
+        } catch (IOException e) {
+            System.err.println("Warning (sending): " + e.getMessage());
+            metrics.answered(receivedAt, startedAt, false);
+            return;
+        }
+        metrics.answered(receivedAt, startedAt, true);
     }
 
     private class ServerRunnable implements Runnable {
         @Override
         public void run() {
+            int bufferSize = HelloNioUDPServer.MAX_DATAGRAM_SIZE;
+            DatagramPacket spare = new DatagramPacket(new byte[bufferSize], bufferSize);
+            ResponseEncoder encoder = new ResponseEncoder(bufferSize);
             while (!socket.isClosed() && !Thread.interrupted()) {
-                var receivePacket = new DatagramPacket(new byte[bufferSize], bufferSize);
+                DatagramPacket receivePacket = ring.acquire();
+                boolean queued = null != receivePacket;
+                if (!queued) {
+                    receivePacket = spare;
+                    spare.setLength(bufferSize);
+                }
                 try {
                     socket.receive(receivePacket);
                 } catch (IOException e) {
-                    System.err.println("Warning (receiving): " + e.getMessage());
+                    if (queued) {
+                        ring.release(receivePacket);
+                    }
+                    if (!socket.isClosed()) {
+                        System.err.println("Warning (receiving): " + e.getMessage());
+                        metrics.receiveError();
+                    }
                     continue;
                 }
-                sendPool.submit(() -> {
-                    String receiveText = new String(receivePacket.getData(), receivePacket.getOffset(),
-                            receivePacket.getLength(), StandardCharsets.UTF_8);
-                    String requestText = "Hello, " + receiveText;
-                    var sendPacket = new DatagramPacket(requestText.getBytes(StandardCharsets.UTF_8),
-                            requestText.length(), receivePacket.getSocketAddress());
+                long receivedAt = System.nanoTime();
+                metrics.received();
+                if (queued) {
+                    ring.stamp(receivePacket, receivedAt);
+                }
+                if (queued && perPacketThreads) {
+                    answerAndRelease(receivePacket);
+                } else if (queued) {
+                    ring.publish(receivePacket);
+                } else if (overloadPolicy == OverloadPolicy.INLINE) {
+                    answer(receivePacket, receivedAt, encoder);
+                } else {
+                    metrics.droppedNewest();
+                }
+            }
+        }
+    }
+
+    /**
+     * Answers on a new virtual thread with a pooled encoder: there are not more of them
+     * than packets in the ring.
+     */
+    private void answerAndRelease(DatagramPacket receivePacket) {
+        try {
+            workers.submit(() -> {
+                ResponseEncoder encoder = encoders.poll();
+                if (null == encoder) {
+                    encoder = new ResponseEncoder(HelloNioUDPServer.MAX_DATAGRAM_SIZE);
+                }
+                try {
+                    answer(receivePacket, ring.stamp(receivePacket), encoder);
+                } finally {
+                    encoders.offer(encoder);
+                    ring.release(receivePacket);
+                }
+            });
+        } catch (RejectedExecutionException e) {
+            ring.release(receivePacket);
+        }
+    }
+
+    private class Worker implements Runnable {
+        @Override
+        public void run() {
+            ResponseEncoder encoder = new ResponseEncoder(HelloNioUDPServer.MAX_DATAGRAM_SIZE);
+            try {
+                while (!Thread.interrupted()) {
+                    DatagramPacket receivePacket = ring.take();
                     try {
-                        socket.send(sendPacket);
-                    } catch (IOException e) {
-                        System.err.println("Warning (sending): " + e.getMessage());
+                        answer(receivePacket, ring.stamp(receivePacket), encoder);
+                    } finally {
+                        ring.release(receivePacket);
                     }
-                });
+                }
+            } catch (InterruptedException ignored) {
             }
         }
     }
-}
\ No newline at end of file
+}
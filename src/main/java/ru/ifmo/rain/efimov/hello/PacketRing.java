@@ -0,0 +1,152 @@
+package ru.ifmo.rain.efimov.hello;
+
+import java.net.DatagramPacket;
+import java.util.IdentityHashMap;
+import java.util.Map;
+import java.util.concurrent.locks.Condition;
+import java.util.concurrent.locks.ReentrantLock;
+
+/**
+ * Bounded hand-off of received packets from the receive thread to workers. <br/>
+ * All packets are allocated once: receiver {@link #acquire() acquires} a free packet, receives into it
+ * and {@link #publish(DatagramPacket) publishes} it, worker {@link #take() takes} it and
+ * {@link #release(DatagramPacket) releases} it after the answer is sent.
+ * Published packets wait in a ring in receive order. <br/>
+ * Capacity is larger than the number of workers, so while workers hold one packet each,
+ * some packet is always free or waiting. <br/>
+ * Each packet carries the time it was received, {@link #stamp(DatagramPacket, long) set} by the receiver
+ * before publishing. <br/>
+ * Thread-safe.
+ */
+class PacketRing {
+    private final ReentrantLock lock = new ReentrantLock();
+    private final Condition notEmpty = lock.newCondition();
+    private final DatagramPacket[] ring;
+    private final DatagramPacket[] free;
+    private final Map<DatagramPacket, Integer> slots = new IdentityHashMap<>();
+    private final long[] receivedAt;
+    private final boolean dropOldest;
+    private int head;
+    private int size;
+    private int freeCount;
+    private long dropped;
+
+    /**
+     * @param capacity   number of packets; <br/>
+     * @param bufferSize data size of each packet; <br/>
+     * @param dropOldest whether to take the oldest waiting packet when there are no free ones. <br/>
+     */
+    PacketRing(int capacity, int bufferSize, boolean dropOldest) {
+        this.ring = new DatagramPacket[capacity];
+        this.free = new DatagramPacket[capacity];
+        this.receivedAt = new long[capacity];
+        this.dropOldest = dropOldest;
+        for (; freeCount < capacity; freeCount++) {
+            free[freeCount] = new DatagramPacket(new byte[bufferSize], bufferSize);
+            slots.put(free[freeCount], freeCount);
+        }
+    }
+
+    /**
+     * Sets receive time of an acquired packet, visible to the worker which takes it.
+     * Slots are never changed after construction, so lookups are safe without the lock.
+     */
+    void stamp(DatagramPacket packet, long nanos) {
+        receivedAt[slots.get(packet)] = nanos;
+    }
+
+    long stamp(DatagramPacket packet) {
+        return receivedAt[slots.get(packet)];
+    }
+
+    /**
+     * Returns a free packet with length reset to its buffer, or the oldest waiting packet
+     * if dropping oldest, or null if there are none.
+     */
+    DatagramPacket acquire() {
+        lock.lock();
+        try {
+            DatagramPacket packet;
+            if (freeCount > 0) {
+                packet = free[--freeCount];
+            } else if (dropOldest && size > 0) {
+                packet = poll();
+                dropped++;
+            } else {
+                return null;
+            }
+            packet.setLength(packet.getData().length);
+            return packet;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void publish(DatagramPacket packet) {
+        lock.lock();
+        try {
+            ring[(head + size) % ring.length] = packet;
+            size++;
+            notEmpty.signal();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    DatagramPacket take() throws InterruptedException {
+        lock.lockInterruptibly();
+        try {
+            while (size == 0) {
+                notEmpty.await();
+            }
+            return poll();
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    void release(DatagramPacket packet) {
+        lock.lock();
+        try {
+            free[freeCount++] = packet;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    /**
+     * Number of waiting packets taken by {@link #acquire()}.
+     */
+    long dropped() {
+        lock.lock();
+        try {
+            return dropped;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    int capacity() {
+        return ring.length;
+    }
+
+    /**
+     * Number of published packets waiting for a worker.
+     */
+    int size() {
+        lock.lock();
+        try {
+            return size;
+        } finally {
+            lock.unlock();
+        }
+    }
+
+    private DatagramPacket poll() {
+        DatagramPacket packet = ring[head];
+        ring[head] = null;
+        head = (head + 1) % ring.length;
+        size--;
+        return packet;
+    }
+}
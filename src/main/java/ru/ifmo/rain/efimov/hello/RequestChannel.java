@@ -0,0 +1,217 @@
+package ru.ifmo.rain.efimov.hello;
+
+import java.io.IOException;
+import java.net.InetSocketAddress;
+import java.nio.ByteBuffer;
+import java.nio.channels.DatagramChannel;
+import java.nio.channels.SelectionKey;
+import java.nio.channels.Selector;
+import java.nio.charset.StandardCharsets;
+import java.util.ArrayDeque;
+import java.util.Collection;
+import java.util.HashMap;
+import java.util.Map;
+import java.util.PriorityQueue;
+
+/**
+ * Non-blocking channel connected to a hello server with its requests in flight,
+ * used by {@link HelloNioUDPClient} and {@link HelloLoadGenerator}. <br/>
+ * Responses are matched to requests by text, request which is not answered in time is sent again
+ * on its own, timeout adapts to measured round-trip times, see {@link RetransmitTimer}.
+ * Request which the channel cannot take at once waits until the channel is writable. <br/>
+ * Not thread-safe, served by one I/O thread.
+ *
+ * @param <R> requests with the data of their sender
+ */
+class RequestChannel<R extends RequestChannel.Request> implements AutoCloseable {
+    static final String RESPONSE_PREFIX = "Hello, ";
+
+    private final RetransmitTimer timer;
+    private final DatagramChannel channel;
+    private final Selector selector;
+    private final SelectionKey key;
+    private final ByteBuffer receiveBuffer = ByteBuffer.allocateDirect(HelloNioUDPServer.MAX_DATAGRAM_SIZE);
+    private final Map<String, R> inFlight = new HashMap<>();
+    private final PriorityQueue<R> deadlines = new PriorityQueue<>((a, b) -> Long.compare(a.deadline, b.deadline));
+    private final ArrayDeque<R> unsent = new ArrayDeque<>();
+
+    RequestChannel(InetSocketAddress serverAddress, RetransmitTimer timer) throws IOException {
+        this.timer = timer;
+        this.channel = DatagramChannel.open();
+        try {
+            this.selector = Selector.open();
+        } catch (IOException e) {
+            channel.close();
+            throw e;
+        }
+        try {
+            channel.connect(serverAddress);
+            channel.configureBlocking(false);
+            key = channel.register(selector, SelectionKey.OP_READ);
+        } catch (IOException e) {
+            close();
+            throw e;
+        }
+    }
+
+    /**
+     * Sends the request for the first time or again, and sets its retransmission deadline.
+     */
+    void send(R request) {
+        if (request.sends == 0) {
+            inFlight.put(request.text, request);
+        }
+        request.sentAt = System.nanoTime();
+        request.deadline = request.sentAt + timer.timeoutNanos(request.sends++);
+        deadlines.add(request);
+        if (request.queued) {
+            return;
+        }
+        if (!unsent.isEmpty() || !trySend(request)) {
+            request.queued = true;
+            unsent.addLast(request);
+        }
+    }
+
+    /**
+     * Waits for a response or for the channel to become writable, then sends waiting requests.
+     *
+     * @param timeoutMillis time to wait, 0 to only check the channel
+     */
+    void await(long timeoutMillis) throws IOException {
+        key.interestOps(SelectionKey.OP_READ | (unsent.isEmpty() ? 0 : SelectionKey.OP_WRITE));
+        if (timeoutMillis > 0) {
+            selector.select(timeoutMillis);
+        } else {
+            selector.selectNow();
+        }
+        selector.selectedKeys().clear();
+        sendUnsent();
+    }
+
+    /**
+     * Receives all available responses and gives answered requests to the consumer.
+     */
+    void receive(AnswerConsumer<R> consumer) {
+        while (true) {
+            receiveBuffer.clear();
+            try {
+                if (null == channel.receive(receiveBuffer)) {
+                    return;
+                }
+            } catch (IOException e) {
+                System.err.println("Warning: " + e.getMessage());
+                return;
+            }
+            long receivedAt = System.nanoTime();
+            receiveBuffer.flip();
+            String responseText = StandardCharsets.UTF_8.decode(receiveBuffer).toString();
+            R request = match(responseText);
+            if (null != request) {
+                inFlight.remove(request.text);
+                request.answered = true;
+                if (request.sends == 1) {
+                    timer.sample(receivedAt - request.sentAt);
+                }
+                consumer.answered(request, responseText, receivedAt);
+            }
+        }
+    }
+
+    /**
+     * Sends again requests which are not answered by their deadlines.
+     */
+    void retransmit() {
+        long now = System.nanoTime();
+        while (!deadlines.isEmpty() && deadlines.peek().deadline <= now) {
+            R request = deadlines.poll();
+            if (!request.answered) {
+                send(request);
+            }
+        }
+    }
+
+    /**
+     * Time of the nearest retransmission, {@link Long#MAX_VALUE} if nothing is in flight.
+     */
+    long nextDeadline() {
+        return deadlines.isEmpty() ? Long.MAX_VALUE : deadlines.peek().deadline;
+    }
+
+    int inFlight() {
+        return inFlight.size();
+    }
+
+    Collection<R> inFlightRequests() {
+        return inFlight.values();
+    }
+
+    @Override
+    public void close() throws IOException {
+        try (channel) {
+            selector.close();
+        }
+    }
+
+    private void sendUnsent() {
+        while (!unsent.isEmpty() && trySend(unsent.peekFirst())) {
+            unsent.pollFirst().queued = false;
+        }
+    }
+
+    /**
+     * @return false if the channel is not ready; on error request waits for its retransmission
+     */
+    private boolean trySend(R request) {
+        try {
+            request.bytes.rewind();
+            return channel.write(request.bytes) > 0;
+        } catch (IOException e) {
+            System.err.println("Warning: " + e.getMessage());
+            return true;
+        }
+    }
+
+    /**
+     * Response is expected to be 'Hello, ' + request, otherwise the longest request
+     * contained in the response is taken, so 'p1_1' doesn't take the answer of 'p1_10'.
+     */
+    private R match(String responseText) {
+        if (responseText.startsWith(RESPONSE_PREFIX)) {
+            R request = inFlight.get(responseText.substring(RESPONSE_PREFIX.length()));
+            if (null != request) {
+                return request;
+            }
+        }
+        R best = null;
+        for (R request : inFlight.values()) {
+            if (responseText.contains(request.text) && (null == best || request.text.length() > best.text.length())) {
+                best = request;
+            }
+        }
+        return best;
+    }
+
+    @FunctionalInterface
+    interface AnswerConsumer<R> {
+        /**
+         * @param receivedAt time the response was received. <br/>
+         */
+        void answered(R request, String responseText, long receivedAt);
+    }
+
+    static class Request {
+        final String text;
+        final ByteBuffer bytes;
+        long sentAt;
+        long deadline;
+        int sends;
+        boolean answered;
+        boolean queued;
+
+        Request(String text) {
+            this.text = text;
+            this.bytes = ByteBuffer.wrap(text.getBytes(StandardCharsets.UTF_8));
+        }
+    }
+}
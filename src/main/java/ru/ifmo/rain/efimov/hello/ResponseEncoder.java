@@ -0,0 +1,37 @@
+package ru.ifmo.rain.efimov.hello;
+
+import java.net.DatagramPacket;
+
+/**
+ * Reusable outgoing packet of one worker: answer is built by copying the pre-encoded 'Hello, ' bytes
+ * and raw request bytes, so any UTF-8 request is answered exactly and nothing is decoded,
+ * encoded or allocated per packet. <br/>
+ * Not thread-safe, each worker has its own.
+ */
+class ResponseEncoder {
+    private final byte[] buffer;
+    private final DatagramPacket packet;
+
+    /**
+     * @param maxRequestSize size of the largest request. <br/>
+     */
+    ResponseEncoder(int maxRequestSize) {
+        buffer = new byte[HelloNioUDPServer.PREFIX.length + maxRequestSize];
+        System.arraycopy(HelloNioUDPServer.PREFIX, 0, buffer, 0, HelloNioUDPServer.PREFIX.length);
+        packet = new DatagramPacket(buffer, buffer.length);
+    }
+
+    /**
+     * Returns the answer to the request, addressed to its sender.
+     * Address and port are copied separately, since a socket address is created on each request for it.
+     * Packet is valid until the next call.
+     */
+    DatagramPacket encode(DatagramPacket request) {
+        int length = request.getLength();
+        System.arraycopy(request.getData(), request.getOffset(), buffer, HelloNioUDPServer.PREFIX.length, length);
+        packet.setLength(HelloNioUDPServer.PREFIX.length + length);
+        packet.setAddress(request.getAddress());
+        packet.setPort(request.getPort());
+        return packet;
+    }
+}
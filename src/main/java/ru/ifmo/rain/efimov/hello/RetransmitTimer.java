@@ -0,0 +1,81 @@
+package ru.ifmo.rain.efimov.hello;
+
+import java.util.concurrent.ThreadLocalRandom;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Retransmission timeout of requests to one server, derived from measured round-trip times
+ * in the style of Jacobson/Karels (RFC 6298): smoothed RTT plus four RTT variations. <br/>
+ * Only answers to requests sent once are measured, since the answer to a retransmitted request
+ * may belong to any of its copies. <br/>
+ * Each retransmission doubles the timeout, and a random part of up to a half of it is subtracted,
+ * so senders which lost packets at the same moment don't retransmit together.
+ * Timeout is always within the floor and ceiling. <br/>
+ * Thread-safe, shared by all senders to the server.
+ */
+class RetransmitTimer {
+    static final long DEFAULT_MIN_TIMEOUT = 20;
+    static final long DEFAULT_MAX_TIMEOUT = 4000;
+    private static final long INITIAL_TIMEOUT = 1000;
+    private static final int MAX_BACKOFF_SHIFT = 16;
+
+    private final long minTimeoutNanos;
+    private final long maxTimeoutNanos;
+    private long smoothedRtt;
+    private long rttVariation;
+    private long timeout;
+
+    /**
+     * @param minTimeout floor of the timeout in milliseconds; <br/>
+     * @param maxTimeout ceiling of the timeout in milliseconds. <br/>
+     */
+    RetransmitTimer(long minTimeout, long maxTimeout) {
+        checkBounds(minTimeout, maxTimeout);
+        this.minTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(minTimeout);
+        this.maxTimeoutNanos = TimeUnit.MILLISECONDS.toNanos(maxTimeout);
+        this.timeout = clamp(TimeUnit.MILLISECONDS.toNanos(INITIAL_TIMEOUT));
+    }
+
+    static void checkBounds(long minTimeout, long maxTimeout) {
+        if (minTimeout < 1 || maxTimeout < minTimeout) {
+            throw new IllegalArgumentException("Wrong timeout bounds: " + minTimeout + ", " + maxTimeout);
+        }
+    }
+
+    /**
+     * Adds round-trip time of a request which was sent once.
+     */
+    synchronized void sample(long rttNanos) {
+        if (smoothedRtt == 0) {
+            smoothedRtt = rttNanos;
+            rttVariation = rttNanos / 2;
+        } else {
+            rttVariation += (Math.abs(smoothedRtt - rttNanos) - rttVariation) / 4;
+            smoothedRtt += (rttNanos - smoothedRtt) / 8;
+        }
+        timeout = clamp(smoothedRtt + 4 * rttVariation);
+    }
+
+    /**
+     * Timeout of a request which was already sent the given number of times.
+     */
+    long timeoutNanos(int retransmissions) {
+        long current;
+        synchronized (this) {
+            current = timeout;
+        }
+        if (retransmissions == 0) {
+            return current;
+        }
+        long backoff = clamp(current << Math.min(retransmissions, MAX_BACKOFF_SHIFT));
+        return clamp(backoff - ThreadLocalRandom.current().nextLong(backoff / 2 + 1));
+    }
+
+    int timeoutMillis(int retransmissions) {
+        return (int) Math.max(1, TimeUnit.NANOSECONDS.toMillis(timeoutNanos(retransmissions)));
+    }
+
+    private long clamp(long nanos) {
+        return nanos < 0 ? maxTimeoutNanos : Math.max(minTimeoutNanos, Math.min(nanos, maxTimeoutNanos));
+    }
+}
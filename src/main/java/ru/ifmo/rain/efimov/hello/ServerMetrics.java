@@ -0,0 +1,214 @@
+package ru.ifmo.rain.efimov.hello;
+
+import ru.ifmo.rain.efimov.metrics.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters, gauges and processing latency of {@link HelloUDPServer} and {@link HelloNioUDPServer}. <br/>
+ * Received minus replied and dropped is the number of packets in process or lost on send errors;
+ * packets lost by the kernel are never received, so they are visible only on the client side.
+ * Batches are counted only by the non-blocking server, which has no hand-off ring. <br/>
+ * Recording is lock-free and doesn't allocate. Thread-safe.
+ */
+public class ServerMetrics implements ServerMetricsMXBean, AutoCloseable {
+    private static final String OBJECT_NAME = "ru.ifmo.rain.efimov.hello:type=ServerMetrics,port=";
+    private static final double MICROSECOND = 1e3;
+
+    private final int workers;
+    private final int batchSize;
+    private final PacketRing ring;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder received = new LongAdder();
+    private final LongAdder replied = new LongAdder();
+    private final LongAdder droppedNewest = new LongAdder();
+    private final LongAdder sendErrors = new LongAdder();
+    private final LongAdder receiveErrors = new LongAdder();
+    private final LongAdder busyNanos = new LongAdder();
+    private final LongAdder batches = new LongAdder();
+    private final LongAdder batchedDatagrams = new LongAdder();
+    private final LatencyHistogram latency = new LatencyHistogram();
+    private ScheduledExecutorService reporter;
+    private ObjectName objectName;
+
+    /**
+     * @param workers   number of threads answering packets; <br/>
+     * @param ring      hand-off ring of the server, or null if it was not created or there is none; <br/>
+     * @param batchSize datagrams in a full batch, 0 if the server doesn't batch. <br/>
+     */
+    ServerMetrics(int workers, PacketRing ring, int batchSize) {
+        this.workers = Math.max(workers, 1);
+        this.ring = ring;
+        this.batchSize = batchSize;
+    }
+
+    /**
+     * Registers metrics as MBean and prints a summary to the stream every period,
+     * both are stopped by {@link #close()}.
+     */
+    public void start(int port, long periodSeconds, PrintStream out) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        objectName = new ObjectName(OBJECT_NAME + port);
+        server.registerMBean(this, objectName);
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "hello-server-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.println(summary()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    void received() {
+        received.increment();
+    }
+
+    void receiveError() {
+        receiveErrors.increment();
+    }
+
+    void droppedNewest() {
+        droppedNewest.increment();
+    }
+
+    /**
+     * Records a batch of received datagrams, each of them is also recorded as received.
+     */
+    void batch(int datagrams) {
+        batches.increment();
+        batchedDatagrams.add(datagrams);
+    }
+
+    /**
+     * Records an answered packet.
+     *
+     * @param receivedAt time the request was received; <br/>
+     * @param startedAt  time the answer was started; <br/>
+     * @param sent       whether the answer was sent, or failed. <br/>
+     */
+    void answered(long receivedAt, long startedAt, boolean sent) {
+        long now = System.nanoTime();
+        busyNanos.add(now - startedAt);
+        if (sent) {
+            replied.increment();
+            latency.record(now - receivedAt);
+        } else {
+            sendErrors.increment();
+        }
+    }
+
+    @Override
+    public long getReceived() {
+        return received.sum();
+    }
+
+    @Override
+    public long getReplied() {
+        return replied.sum();
+    }
+
+    @Override
+    public long getDropped() {
+        return droppedNewest.sum() + (null == ring ? 0 : ring.dropped());
+    }
+
+    @Override
+    public long getSendErrors() {
+        return sendErrors.sum();
+    }
+
+    @Override
+    public long getReceiveErrors() {
+        return receiveErrors.sum();
+    }
+
+    @Override
+    public int getQueueDepth() {
+        return null == ring ? 0 : ring.size();
+    }
+
+    @Override
+    public double getWorkerUtilization() {
+        return Math.min(1, busyNanos.sum() / (elapsedNanos() * workers));
+    }
+
+    @Override
+    public double getRepliesPerSecond() {
+        return getReplied() / (elapsedNanos() / 1e9);
+    }
+
+    @Override
+    public long getBatches() {
+        return batches.sum();
+    }
+
+    @Override
+    public int getBatchSize() {
+        return batchSize;
+    }
+
+    @Override
+    public double getBatchFill() {
+        long count = batches.sum();
+        return count == 0 ? 0 : (double) batchedDatagrams.sum() / count;
+    }
+
+    @Override
+    public double getLatencyP50Micros() {
+        return latency.percentile(0.5) / MICROSECOND;
+    }
+
+    @Override
+    public double getLatencyP99Micros() {
+        return latency.percentile(0.99) / MICROSECOND;
+    }
+
+    @Override
+    public double getLatencyP999Micros() {
+        return latency.percentile(0.999) / MICROSECOND;
+    }
+
+    @Override
+    public double getLatencyMaxMicros() {
+        return latency.max() / MICROSECOND;
+    }
+
+    public String summary() {
+        String summary = String.format("received %d, replied %d, dropped %d, send errors %d, receive errors %d, queue %d, "
+                        + "utilization %.1f%%, %.1f replies/s%n  latency, us: p50 %.1f, p99 %.1f, p999 %.1f, max %.1f",
+                getReceived(), getReplied(), getDropped(), getSendErrors(), getReceiveErrors(), getQueueDepth(),
+                getWorkerUtilization() * 100, getRepliesPerSecond(),
+                getLatencyP50Micros(), getLatencyP99Micros(), getLatencyP999Micros(), getLatencyMaxMicros());
+        if (batchSize == 0) {
+            return summary;
+        }
+        return summary + String.format("%n  batches %d, %.2f of %d datagrams per batch",
+                getBatches(), getBatchFill(), batchSize);
+    }
+
+    @Override
+    public void close() {
+        if (null != reporter) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        if (null != objectName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+            objectName = null;
+        }
+    }
+
+    private double elapsedNanos() {
+        return Math.max(System.nanoTime() - startNanos, 1);
+    }
+}
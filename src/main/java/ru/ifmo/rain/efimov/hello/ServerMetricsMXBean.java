@@ -0,0 +1,55 @@
+package ru.ifmo.rain.efimov.hello;
+
+/**
+ * JMX view of {@link ServerMetrics}. Counters are totals since the server start,
+ * latencies are from receive of a request to send of its answer in microseconds.
+ */
+public interface ServerMetricsMXBean {
+    long getReceived();
+
+    long getReplied();
+
+    /**
+     * Packets which were not answered because of overload.
+     */
+    long getDropped();
+
+    long getSendErrors();
+
+    long getReceiveErrors();
+
+    /**
+     * Packets waiting for a worker now.
+     */
+    int getQueueDepth();
+
+    /**
+     * Share of time workers spent answering since the server start, from 0 to 1.
+     */
+    double getWorkerUtilization();
+
+    double getRepliesPerSecond();
+
+    /**
+     * Batches received by the non-blocking server, 0 for the blocking one.
+     */
+    long getBatches();
+
+    /**
+     * Datagrams in a full batch, 0 if the server doesn't batch.
+     */
+    int getBatchSize();
+
+    /**
+     * Average datagrams per batch, from 0 to the batch size.
+     */
+    double getBatchFill();
+
+    double getLatencyP50Micros();
+
+    double getLatencyP99Micros();
+
+    double getLatencyP999Micros();
+
+    double getLatencyMaxMicros();
+}
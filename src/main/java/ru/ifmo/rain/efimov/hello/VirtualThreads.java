@@ -0,0 +1,44 @@
+package ru.ifmo.rain.efimov.hello;
+
+import java.lang.reflect.Method;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+
+/**
+ * Virtual threads of JDK 21, found through reflection, so the classes still build for JDK 11
+ * and run in virtual-thread mode when the runtime supports it.
+ */
+final class VirtualThreads {
+    private static final Method NEW_THREAD_PER_TASK_EXECUTOR = find();
+
+    private VirtualThreads() {
+    }
+
+    static boolean supported() {
+        return null != NEW_THREAD_PER_TASK_EXECUTOR;
+    }
+
+    /**
+     * Executor starting a new virtual thread for each task.
+     *
+     * @throws UnsupportedOperationException if the runtime has no virtual threads
+     */
+    static ExecutorService newThreadPerTaskExecutor() {
+        if (!supported()) {
+            throw new UnsupportedOperationException("Virtual threads need JDK 21 or later");
+        }
+        try {
+            return (ExecutorService) NEW_THREAD_PER_TASK_EXECUTOR.invoke(null);
+        } catch (ReflectiveOperationException e) {
+            throw new IllegalStateException("Cannot create virtual thread executor", e);
+        }
+    }
+
+    private static Method find() {
+        try {
+            return Executors.class.getMethod("newVirtualThreadPerTaskExecutor");
+        } catch (NoSuchMethodException e) {
+            return null;
+        }
+    }
+}
@@ -0,0 +1,93 @@
+package ru.ifmo.rain.efimov.metrics;
+
+import java.util.concurrent.atomic.AtomicLongArray;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Histogram of nanosecond latencies in the style of HdrHistogram: values below 128 are counted exactly,
+ * larger values by 64 sub-buckets per power of two, so any recorded value is known within 1/64. <br/>
+ * Shared by the metrics of the walk and of the hello server and load generator. <br/>
+ * Recording is lock-free and doesn't allocate. Thread-safe.
+ */
+public class LatencyHistogram {
+    private static final int EXACT = 128;
+    private static final int SUB_BUCKET_BITS = 6;
+    private static final int SUB_BUCKETS = 1 << SUB_BUCKET_BITS;
+    private static final int SIZE = EXACT + (Long.SIZE - 1 - SUB_BUCKET_BITS) * SUB_BUCKETS;
+
+    private final AtomicLongArray counts = new AtomicLongArray(SIZE);
+    private final LongAdder total = new LongAdder();
+
+    public void record(long nanos) {
+        counts.incrementAndGet(index(Math.max(nanos, 0)));
+        total.add(Math.max(nanos, 0));
+    }
+
+    public long count() {
+        long count = 0;
+        for (int i = 0; i < SIZE; i++) {
+            count += counts.get(i);
+        }
+        return count;
+    }
+
+    /**
+     * Returns the largest value equivalent to the value at the given quantile, 0 if empty.
+     */
+    public long percentile(double quantile) {
+        long rank = Math.max(1, (long) Math.ceil(quantile * count()));
+        long seen = 0;
+        for (int i = 0; i < SIZE; i++) {
+            seen += counts.get(i);
+            if (seen >= rank) {
+                return highestEquivalent(i);
+            }
+        }
+        return 0;
+    }
+
+    public long max() {
+        for (int i = SIZE - 1; i >= 0; i--) {
+            if (counts.get(i) > 0) {
+                return highestEquivalent(i);
+            }
+        }
+        return 0;
+    }
+
+    /**
+     * Adds counts of the other histogram to this one.
+     */
+    public void add(LatencyHistogram other) {
+        for (int i = 0; i < SIZE; i++) {
+            counts.addAndGet(i, other.counts.get(i));
+        }
+        total.add(other.total.sum());
+    }
+
+    public long totalNanos() {
+        return total.sum();
+    }
+
+    public long mean() {
+        long count = count();
+        return count == 0 ? 0 : totalNanos() / count;
+    }
+
+    private static int index(long value) {
+        if (value < EXACT) {
+            return (int) value;
+        }
+        int shift = Long.SIZE - 1 - Long.numberOfLeadingZeros(value) - SUB_BUCKET_BITS;
+        return EXACT + (shift - 1) * SUB_BUCKETS + (int) (value >>> shift) - SUB_BUCKETS;
+    }
+
+    private static long highestEquivalent(int index) {
+        if (index < EXACT) {
+            return index;
+        }
+        int shift = (index - EXACT) / SUB_BUCKETS + 1;
+        long subBucket = (index - EXACT) % SUB_BUCKETS + SUB_BUCKETS;
+        return ((subBucket + 1) << shift) - 1;
+    }
+}
@@ -0,0 +1,79 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * Base of hashes which consume content by fixed-size blocks of little-endian words. <br/>
+ * Whole blocks are hashed right in the given buffer, bytes which don't fill a block are kept
+ * until the next update or given to {@link #finish(ByteBuffer, long)} as a tail.
+ */
+abstract class BlockHasher implements HashFunction.Hasher {
+    private final int blockSize;
+    private final ByteBuffer pending;
+    private long length;
+
+    BlockHasher(int blockSize) {
+        this.blockSize = blockSize;
+        this.pending = ByteBuffer.allocate(blockSize).order(ByteOrder.LITTLE_ENDIAN);
+    }
+
+    @Override
+    public final void update(ByteBuffer data) {
+        int position = data.position();
+        int limit = data.limit();
+        length += limit - position;
+        if (pending.position() > 0) {
+            while (pending.hasRemaining() && position < limit) {
+                pending.put(data.get(position++));
+            }
+            if (pending.hasRemaining()) {
+                data.position(limit);
+                return;
+            }
+            process(pending, 0, blockSize);
+            pending.clear();
+        }
+        int blocksEnd = position + (limit - position) / blockSize * blockSize;
+        process(data, position, blocksEnd);
+        for (position = blocksEnd; position < limit; position++) {
+            pending.put(data.get(position));
+        }
+        data.position(limit);
+    }
+
+    @Override
+    public final byte[] digest() {
+        pending.flip();
+        return finish(pending, length);
+    }
+
+    /**
+     * Hashes whole blocks of data from start to end (exclusive), positions are absolute.
+     */
+    protected abstract void process(ByteBuffer data, int start, int end);
+
+    /**
+     * @param tail   less than a block of last bytes, between position and limit; <br/>
+     * @param length total length of content. <br/>
+     */
+    protected abstract byte[] finish(ByteBuffer tail, long length);
+
+    static long getLong(ByteBuffer data, int index) {
+        long word = data.getLong(index);
+        return data.order() == ByteOrder.LITTLE_ENDIAN ? word : Long.reverseBytes(word);
+    }
+
+    static long getUnsignedInt(ByteBuffer data, int index) {
+        int word = data.getInt(index);
+        return (data.order() == ByteOrder.LITTLE_ENDIAN ? word : Integer.reverseBytes(word)) & 0xffffffffL;
+    }
+
+    static byte[] toBytes(long... words) {
+        ByteBuffer result = ByteBuffer.allocate(words.length * Long.BYTES);
+        for (long word : words) {
+            result.putLong(word);
+        }
+        return result.array();
+    }
+}
@@ -0,0 +1,140 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.io.IOException;
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Gives file content to a {@link HashFunction}. <br/>
+ * Files smaller than map threshold are read through {@link FileChannel} into direct buffer
+ * (one buffer per thread), larger files are hashed by memory-mapped windows.
+ * All buffers are little-endian. <br/>
+ * Open, read and hash times and read bytes are recorded to {@link WalkMetrics}. <br/>
+ * Thread-safe.
+ */
+public class ContentReader {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 16;
+    public static final long DEFAULT_MAP_THRESHOLD = 1 << 24;
+    private static final long MAP_WINDOW_SIZE = 1 << 26;
+
+    private final int bufferSize;
+    private final long mapThreshold;
+    private final ThreadLocal<ByteBuffer> buffers;
+    private final WalkMetrics metrics;
+
+    public ContentReader() {
+        this(DEFAULT_BUFFER_SIZE, DEFAULT_MAP_THRESHOLD);
+    }
+
+    public ContentReader(int bufferSize, long mapThreshold) {
+        this(bufferSize, mapThreshold, WalkMetrics.DISABLED);
+    }
+
+    /**
+     * @param bufferSize   size of direct buffer for reading through channel; <br/>
+     * @param mapThreshold files of this size or larger are memory-mapped,
+     *                     {@link Long#MAX_VALUE} disables mapping; <br/>
+     * @param metrics      receives times of reading, {@link WalkMetrics#DISABLED} if not needed. <br/>
+     */
+    public ContentReader(int bufferSize, long mapThreshold, WalkMetrics metrics) {
+        if (bufferSize < 1 || mapThreshold < 0) {
+            throw new IllegalArgumentException("Wrong read settings: buffer " + bufferSize
+                    + ", map threshold " + mapThreshold);
+        }
+        this.bufferSize = bufferSize;
+        this.mapThreshold = mapThreshold;
+        this.metrics = metrics;
+        this.buffers = ThreadLocal.withInitial(
+                () -> ByteBuffer.allocateDirect(this.bufferSize).order(ByteOrder.LITTLE_ENDIAN));
+    }
+
+    public byte[] hash(Path filePath, HashFunction function) throws IOException {
+        HashFunction.Hasher hasher = function.newHasher();
+        long start = metrics.start();
+        try (FileChannel channel = FileChannel.open(filePath, StandardOpenOption.READ)) {
+            metrics.record(WalkMetrics.Phase.OPEN, start);
+            long size = channel.size();
+            if (size >= mapThreshold && size > 0) {
+                readMapped(channel, 0, size, hasher);
+            } else {
+                read(channel, hasher);
+            }
+        }
+        return hasher.digest();
+    }
+
+    /**
+     * Hashes a region of the file. Only positional reads are used, so the channel may be shared by threads.
+     * If the file is shorter than the region, only existing bytes are hashed.
+     */
+    public byte[] hash(FileChannel channel, long position, long size, HashFunction function) throws IOException {
+        HashFunction.Hasher hasher = function.newHasher();
+        if (size >= mapThreshold && size > 0) {
+            readMapped(channel, position, size, hasher);
+            return hasher.digest();
+        }
+        ByteBuffer buffer = buffers.get();
+        for (long end = position + size; position < end; ) {
+            buffer.clear();
+            buffer.limit((int) Math.min(buffer.capacity(), end - position));
+            long start = metrics.start();
+            int read = channel.read(buffer, position);
+            metrics.record(WalkMetrics.Phase.READ, start);
+            if (read == -1) {
+                break;
+            }
+            position += read;
+            buffer.flip();
+            update(hasher, buffer);
+        }
+        return hasher.digest();
+    }
+
+    private void read(FileChannel channel, HashFunction.Hasher hasher) throws IOException {
+        ByteBuffer buffer = buffers.get();
+        buffer.clear();
+        for (long start = metrics.start(); channel.read(buffer) != -1; start = metrics.start()) {
+            metrics.record(WalkMetrics.Phase.READ, start);
+            buffer.flip();
+            update(hasher, buffer);
+            buffer.clear();
+        }
+    }
+
+    public WalkMetrics metrics() {
+        return metrics;
+    }
+
+    /**
+     * Size is taken once, so bytes appended during hashing are not counted,
+     * same as if file was read before the append. Windows are never mapped past the current end of file,
+     * so a file which became shorter is hashed up to its end, the same as by reads.
+     */
+    private void readMapped(FileChannel channel, long start, long size, HashFunction.Hasher hasher) throws IOException {
+        for (long position = start, end = start + size; position < end; position += MAP_WINDOW_SIZE) {
+            long windowSize = Math.min(MAP_WINDOW_SIZE, Math.min(end, channel.size()) - position);
+            if (windowSize <= 0) {
+                break;
+            }
+            long mapStart = metrics.start();
+            ByteBuffer window = channel.map(FileChannel.MapMode.READ_ONLY, position, windowSize)
+                    .order(ByteOrder.LITTLE_ENDIAN);
+            metrics.record(WalkMetrics.Phase.READ, mapStart);
+            update(hasher, window);
+        }
+    }
+
+    /**
+     * Page faults of mapped windows happen here, so for mapped files read time is only mapping
+     * and the hash time includes reading from disk.
+     */
+    private void update(HashFunction.Hasher hasher, ByteBuffer data) {
+        metrics.bytes(data.remaining());
+        long start = metrics.start();
+        hasher.update(data);
+        metrics.record(WalkMetrics.Phase.HASH, start);
+    }
+}
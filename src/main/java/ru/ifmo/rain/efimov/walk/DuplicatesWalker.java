@@ -0,0 +1,166 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.io.InputStream;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.Arrays;
+import java.util.Comparator;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.TreeMap;
+
+import static java.nio.file.FileVisitResult.CONTINUE;
+
+/**
+ * Instead of hashes of all files writes groups of regular files with the same content. <br/>
+ * Files are grouped by size first, and only files which have the same size as another file are hashed,
+ * so files with unique size are never read. Files with equal hash are compared byte by byte before
+ * they are reported, so a collision of a narrow hash never makes different files duplicates. <br/>
+ * Empty files are not reported, a file visited from several roots is reported once,
+ * hard links are reported as equal files. <br/>
+ * Groups are written from the largest files, one 'hex hash' 'path to file' line per file,
+ * groups are separated by empty line.
+ */
+public class DuplicatesWalker extends RecursiveWalker {
+    private static final int COMPARE_BUFFER_SIZE = 1 << 16;
+
+    public DuplicatesWalker(FileHasher hasher, boolean outputChannel) {
+        super(hasher, outputChannel);
+    }
+
+    @Override
+    public void walk(Path inputFile, Path outputFile) throws IOException {
+        Map<Long, List<SizedFile>> bySize = new TreeMap<>(Comparator.reverseOrder());
+        Set<Path> visited = new HashSet<>();
+        try (BufferedReader input = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8)) {
+            for (String path; null != (path = input.readLine()); ) {
+                collect(path, bySize, visited);
+            }
+        }
+        try (ResultWriter output = openOutput(outputFile)) {
+            for (List<SizedFile> sameSize : bySize.values()) {
+                if (sameSize.size() > 1) {
+                    writeDuplicates(sameSize, output);
+                }
+            }
+        }
+    }
+
+    private void collect(String path, Map<Long, List<SizedFile>> bySize, Set<Path> visited) throws IOException {
+        Path root;
+        try {
+            root = Paths.get(path);
+        } catch (InvalidPathException e) {
+            return;
+        }
+        Files.walkFileTree(root, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                if (attrs.isRegularFile() && attrs.size() > 0 && visited.add(file.toAbsolutePath().normalize())) {
+                    bySize.computeIfAbsent(attrs.size(), size -> new ArrayList<>()).add(new SizedFile(file, attrs));
+                }
+                return CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                return CONTINUE;
+            }
+        });
+    }
+
+    private void writeDuplicates(List<SizedFile> sameSize, ResultWriter output) throws IOException {
+        Map<FileHash, List<SizedFile>> byHash = new LinkedHashMap<>();
+        for (SizedFile file : sameSize) {
+            try {
+                FileHash hash = hasher.hash(file.path, file.attrs);
+                byHash.computeIfAbsent(hash, h -> new ArrayList<>()).add(file);
+            } catch (IOException ignored) {
+                // file which cannot be read has no duplicates
+            }
+        }
+        for (Map.Entry<FileHash, List<SizedFile>> candidates : byHash.entrySet()) {
+            if (candidates.getValue().size() > 1) {
+                for (List<SizedFile> group : byContent(candidates.getValue())) {
+                    if (group.size() > 1) {
+                        for (SizedFile file : group) {
+                            output.write(candidates.getKey(), file.path);
+                        }
+                        output.newLine();
+                    }
+                }
+            }
+        }
+    }
+
+    /**
+     * Splits files with the same hash into groups with the same content. Each file is compared with
+     * the first file of each group, usually there is only one group, so each file is read once more.
+     */
+    private static List<List<SizedFile>> byContent(List<SizedFile> sameHash) {
+        List<List<SizedFile>> groups = new ArrayList<>();
+        for (SizedFile file : sameHash) {
+            try {
+                List<SizedFile> same = null;
+                for (List<SizedFile> group : groups) {
+                    if (sameContent(group.get(0), file)) {
+                        same = group;
+                        break;
+                    }
+                }
+                if (null == same) {
+                    same = new ArrayList<>();
+                    groups.add(same);
+                }
+                same.add(file);
+            } catch (IOException ignored) {
+                // file which cannot be read has no duplicates
+            }
+        }
+        return groups;
+    }
+
+    private static boolean sameContent(SizedFile a, SizedFile b) throws IOException {
+        Object key = a.attrs.fileKey();
+        if (null != key && key.equals(b.attrs.fileKey())) {
+            return true;
+        }
+        byte[] bufferA = new byte[COMPARE_BUFFER_SIZE];
+        byte[] bufferB = new byte[COMPARE_BUFFER_SIZE];
+        try (InputStream inputA = Files.newInputStream(a.path);
+             InputStream inputB = Files.newInputStream(b.path)) {
+            while (true) {
+                int readA = inputA.readNBytes(bufferA, 0, bufferA.length);
+                int readB = inputB.readNBytes(bufferB, 0, bufferB.length);
+                if (Arrays.mismatch(bufferA, 0, readA, bufferB, 0, readB) != -1) {
+                    return false;
+                }
+                if (readA < bufferA.length) {
+                    return true;
+                }
+            }
+        }
+    }
+
+    private static class SizedFile {
+        private final Path path;
+        private final BasicFileAttributes attrs;
+
+        private SizedFile(Path path, BasicFileAttributes attrs) {
+            this.path = path;
+            this.attrs = attrs;
+        }
+    }
+}
@@ -0,0 +1,57 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * FNV-1a 64 bit hash. <br/>
+ * Algorithm is defined per byte, but content is loaded by 8-byte words,
+ * and the eight steps of a word are unrolled.
+ */
+public class FNV1a64Hash implements HashFunction {
+    public static final String NAME = "fnv1a64";
+    private static final long START_HASH = 0xcbf29ce484222325L;
+    private static final long PRIME = 0x100000001b3L;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int size() {
+        return Long.BYTES;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new BlockHasher(Long.BYTES) {
+            private long hash = START_HASH;
+
+            @Override
+            protected void process(ByteBuffer data, int start, int end) {
+                long h = hash;
+                for (int i = start; i < end; i += Long.BYTES) {
+                    long word = getLong(data, i);
+                    h = (h ^ (word & 0xff)) * PRIME;
+                    h = (h ^ (word >>> 8 & 0xff)) * PRIME;
+                    h = (h ^ (word >>> 16 & 0xff)) * PRIME;
+                    h = (h ^ (word >>> 24 & 0xff)) * PRIME;
+                    h = (h ^ (word >>> 32 & 0xff)) * PRIME;
+                    h = (h ^ (word >>> 40 & 0xff)) * PRIME;
+                    h = (h ^ (word >>> 48 & 0xff)) * PRIME;
+                    h = (h ^ (word >>> 56)) * PRIME;
+                }
+                hash = h;
+            }
+
+            @Override
+            protected byte[] finish(ByteBuffer tail, long length) {
+                long h = hash;
+                for (int i = tail.position(); i < tail.limit(); i++) {
+                    h = (h ^ (tail.get(i) & 0xff)) * PRIME;
+                }
+                return toBytes(h);
+            }
+        };
+    }
+}
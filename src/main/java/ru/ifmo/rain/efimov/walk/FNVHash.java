@@ -2,14 +2,30 @@ package ru.ifmo.rain.efimov.walk;
 
 
 import java.io.IOException;
-import java.io.InputStream;
-import java.nio.file.Files;
+import java.nio.ByteBuffer;
 import java.nio.file.Path;
 
-public class FNVHash {
+/**
+ * FNV-1 32 bit hash, the default hash of the walk.
+ */
+public class FNVHash implements HashFunction {
+    public static final String NAME = "fnv32";
     public static final String ERROR_HASH = "00000000";
     public static final int START_HASH = 0x811c9dc5;
 
+    private final ContentReader reader;
+
+    public FNVHash() {
+        this(new ContentReader());
+    }
+
+    /**
+     * @param reader used by {@link #hash32(Path)} and {@link #hashHex(Path)}. <br/>
+     */
+    public FNVHash(ContentReader reader) {
+        this.reader = reader;
+    }
+
     public String hashHex(Path filePath) {
         try {
             int hash = hash32((filePath));
@@ -20,18 +36,40 @@ public class FNVHash {
     }
 
     public int hash32(Path filePath) throws IOException {
-        int hash = START_HASH;
-        try (InputStream file = Files.newInputStream(filePath)) {
-            byte[] buffer = new byte[1024];
-            for (int bytesReaded; (bytesReaded = file.read(buffer)) != -1; )
-                hash = hash32(hash, buffer, bytesReaded);
-        }
-        return hash;
+        return ByteBuffer.wrap(reader.hash(filePath, this)).getInt();
+    }
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int size() {
+        return Integer.BYTES;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new Hasher() {
+            private int hash = START_HASH;
+
+            @Override
+            public void update(ByteBuffer data) {
+                hash = hash32(hash, data);
+                data.position(data.limit());
+            }
+
+            @Override
+            public byte[] digest() {
+                return ByteBuffer.allocate(Integer.BYTES).putInt(hash).array();
+            }
+        };
     }
 
-    private int hash32(int hash, final byte[] buffer, int bytesNumber) {
-        for (int i = 0; i < bytesNumber; i++) {
-            final byte b = buffer[i];
+    private static int hash32(int hash, final ByteBuffer buffer) {
+        for (int i = buffer.position(), limit = buffer.limit(); i < limit; i++) {
+            final byte b = buffer.get(i);
             hash = (hash * 0x01000193) ^ (b & 0xff);
         }
         return hash;
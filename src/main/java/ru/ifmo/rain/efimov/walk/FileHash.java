@@ -0,0 +1,67 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.util.Arrays;
+
+/**
+ * Hash of one file and the way it was computed: by whole content or by {@link TreeHasher chunks}.
+ * Immutable.
+ */
+public class FileHash {
+    public static final String TREE_MARKER = "tree:";
+    private static final char[] HEX_DIGITS = "0123456789abcdef".toCharArray();
+
+    private final byte[] bytes;
+    private final boolean tree;
+
+    /**
+     * @param bytes digest, must not be modified after; <br/>
+     * @param tree  whether digest is a root of chunk hashes. <br/>
+     */
+    public FileHash(byte[] bytes, boolean tree) {
+        this.bytes = bytes;
+        this.tree = tree;
+    }
+
+    /**
+     * Digest, must not be modified.
+     */
+    public byte[] bytes() {
+        return bytes;
+    }
+
+    public boolean isTree() {
+        return tree;
+    }
+
+    /**
+     * Hash as it is written to the result: hex digits, with {@link #TREE_MARKER} for tree hashes.
+     */
+    @Override
+    public String toString() {
+        StringBuilder hex = new StringBuilder(TREE_MARKER.length() + 2 * bytes.length);
+        if (tree) {
+            hex.append(TREE_MARKER);
+        }
+        for (byte b : bytes) {
+            hex.append(HEX_DIGITS[(b >> 4) & 0xf]).append(HEX_DIGITS[b & 0xf]);
+        }
+        return hex.toString();
+    }
+
+    @Override
+    public boolean equals(Object o) {
+        if (this == o) {
+            return true;
+        }
+        if (!(o instanceof FileHash)) {
+            return false;
+        }
+        FileHash other = (FileHash) o;
+        return tree == other.tree && Arrays.equals(bytes, other.bytes);
+    }
+
+    @Override
+    public int hashCode() {
+        return 31 * Arrays.hashCode(bytes) + Boolean.hashCode(tree);
+    }
+}
@@ -0,0 +1,174 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.io.IOException;
+import java.nio.file.Path;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.Objects;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.CompletionException;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hash of a visited file. If cache is given, hashes of regular files are taken from it
+ * while file attributes are the same, and stored to it otherwise. <br/>
+ * If same files are tracked, each physical file (hard links and paths visited from several roots)
+ * is hashed once per walk, repeats get the result of the first visit, or its failure of any kind. <br/>
+ * If tree hasher is given, large files are hashed by chunks. <br/>
+ * Hashed files and errors are counted in metrics of the reader. <br/>
+ * Thread-safe, one hasher is shared by all threads of a walk.
+ */
+public class FileHasher {
+    private final HashFunction function;
+    private final ContentReader reader;
+    private final TreeHasher treeHasher;
+    private final HashCache cache;
+    private final FileHash errorHash;
+    private final Map<FileIdentity, CompletableFuture<FileHash>> sameFiles;
+
+    public FileHasher() {
+        this(new FNVHash(), new ContentReader(), null);
+    }
+
+    public FileHasher(HashFunction function, ContentReader reader, HashCache cache) {
+        this(function, reader, null, cache, false);
+    }
+
+    /**
+     * @param function   hash of files content; <br/>
+     * @param reader     gives files content to the function; <br/>
+     * @param treeHasher hashes large files by chunks, may be null; <br/>
+     * @param cache      hashes of previous walks with the same function and tree hasher, may be null; <br/>
+     * @param trackSameFiles whether to remember hashes by file key. <br/>
+     */
+    public FileHasher(HashFunction function, ContentReader reader, TreeHasher treeHasher, HashCache cache,
+                      boolean trackSameFiles) {
+        this.function = function;
+        this.reader = reader;
+        this.treeHasher = treeHasher;
+        this.cache = cache;
+        this.errorHash = new FileHash(new byte[function.size()], false);
+        this.sameFiles = trackSameFiles ? new ConcurrentHashMap<>() : null;
+    }
+
+    /**
+     * Hash as it is written to the result, see {@link FileHash#toString()}.
+     */
+    public String hashHex(Path file, BasicFileAttributes attrs) {
+        return hashOrError(file, attrs).toString();
+    }
+
+    /**
+     * Returns hash of the file or {@link #errorHash()} if it cannot be hashed.
+     */
+    public FileHash hashOrError(Path file, BasicFileAttributes attrs) {
+        try {
+            FileHash hash = hash(file, attrs);
+            reader.metrics().file();
+            return hash;
+        } catch (Exception e) {
+            return errorHash(e);
+        }
+    }
+
+    /**
+     * Hash written for files which cannot be hashed: zeros of hash length.
+     */
+    public FileHash errorHash() {
+        return errorHash;
+    }
+
+    /**
+     * Same as {@link #errorHash()}, but the file and its error are counted in metrics.
+     */
+    public FileHash errorHash(Exception cause) {
+        WalkMetrics metrics = reader.metrics();
+        metrics.file();
+        metrics.error(cause);
+        return errorHash;
+    }
+
+    public WalkMetrics metrics() {
+        return reader.metrics();
+    }
+
+    /**
+     * Symbolic links are never cached: their attributes don't change when the target does.
+     */
+    public FileHash hash(Path file, BasicFileAttributes attrs) throws IOException {
+        if (null == sameFiles || null == attrs.fileKey() || !attrs.isRegularFile()) {
+            return hashOnce(file, attrs);
+        }
+        CompletableFuture<FileHash> result = new CompletableFuture<>();
+        CompletableFuture<FileHash> first = sameFiles.putIfAbsent(new FileIdentity(attrs), result);
+        if (null != first) {
+            try {
+                return first.join();
+            } catch (CompletionException e) {
+                throw new IOException("Same file failed: " + e.getCause().getMessage(), e.getCause());
+            }
+        }
+        try {
+            FileHash hash = hashOnce(file, attrs);
+            result.complete(hash);
+            return hash;
+        } catch (Throwable e) {
+            result.completeExceptionally(e);
+            throw e;
+        }
+    }
+
+    /**
+     * Whether hash is tree hash depends only on file size, so cached hashes keep their kind.
+     */
+    private FileHash hashOnce(Path file, BasicFileAttributes attrs) throws IOException {
+        boolean tree = null != treeHasher && treeHasher.applies(attrs);
+        if (null == cache || !attrs.isRegularFile()) {
+            return new FileHash(read(file, tree), tree);
+        }
+        byte[] cached = cache.get(file, attrs);
+        if (null != cached) {
+            return new FileHash(cached, tree);
+        }
+        byte[] result = read(file, tree);
+        cache.put(file, attrs, result);
+        return new FileHash(result, tree);
+    }
+
+    private byte[] read(Path file, boolean tree) throws IOException {
+        return tree ? treeHasher.hash(file) : reader.hash(file, function);
+    }
+
+    /**
+     * Physical file and its version: a changed file is not the same as its old content.
+     */
+    private static class FileIdentity {
+        private final Object fileKey;
+        private final long size;
+        private final long modified;
+
+        private FileIdentity(BasicFileAttributes attrs) {
+            this.fileKey = attrs.fileKey();
+            this.size = attrs.size();
+            this.modified = attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+        }
+
+        @Override
+        public boolean equals(Object o) {
+            if (this == o) {
+                return true;
+            }
+            if (!(o instanceof FileIdentity)) {
+                return false;
+            }
+            FileIdentity other = (FileIdentity) o;
+            return size == other.size && modified == other.modified && fileKey.equals(other.fileKey);
+        }
+
+        @Override
+        public int hashCode() {
+            return Objects.hash(fileKey, size, modified);
+        }
+    }
+}
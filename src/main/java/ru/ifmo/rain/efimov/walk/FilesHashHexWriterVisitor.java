@@ -1,6 +1,5 @@
 package ru.ifmo.rain.efimov.walk;
 
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.file.FileVisitResult;
 import java.nio.file.Path;
@@ -10,32 +9,46 @@ import java.nio.file.attribute.BasicFileAttributes;
 import static java.nio.file.FileVisitResult.CONTINUE;
 import static java.nio.file.FileVisitResult.TERMINATE;
 
+/**
+ * Writes hash of each visited file. Time between visits, spent on reading directories
+ * and file attributes, is recorded as {@link WalkMetrics.Phase#STAT}.
+ */
 public class FilesHashHexWriterVisitor extends SimpleFileVisitor<Path> {
-    private final BufferedWriter output;
-    private FNVHash FNVHash;
+    private final ResultWriter output;
+    private final FileHasher hasher;
+    private final WalkMetrics metrics;
+    private long traversed;
 
-    public FilesHashHexWriterVisitor(BufferedWriter output) {
-        FNVHash = new FNVHash();
+    public FilesHashHexWriterVisitor(ResultWriter output) {
+        this(output, new FileHasher());
+    }
+
+    public FilesHashHexWriterVisitor(ResultWriter output, FileHasher hasher) {
+        this.hasher = hasher;
         this.output = output;
+        this.metrics = hasher.metrics();
+        this.traversed = metrics.start();
     }
 
     @Override
     public FileVisitResult visitFile(Path file, BasicFileAttributes attr) {
-        return writeResult(FNVHash.hashHex(file), file);
+        metrics.record(WalkMetrics.Phase.STAT, traversed);
+        return writeResult(hasher.hashOrError(file, attr), file);
     }
 
     @Override
     public FileVisitResult visitFileFailed(Path file, IOException exc) {
-        return writeResult(ru.ifmo.rain.efimov.walk.FNVHash.ERROR_HASH, file);
+        metrics.record(WalkMetrics.Phase.STAT, traversed);
+        return writeResult(hasher.errorHash(exc), file);
     }
 
-    private FileVisitResult writeResult(String result, Path file) {
+    private FileVisitResult writeResult(FileHash result, Path file) {
         try {
-            output.write(result + ' ' + file.toString());
-            output.newLine();
+            output.write(result, file);
         } catch (IOException e) {
             return TERMINATE;
         }
+        traversed = metrics.start();
         return CONTINUE;
     }
 }
\ No newline at end of file
@@ -0,0 +1,161 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.io.BufferedInputStream;
+import java.io.BufferedOutputStream;
+import java.io.DataInputStream;
+import java.io.DataOutputStream;
+import java.io.IOException;
+import java.nio.file.Files;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.Map;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.TimeUnit;
+
+/**
+ * Hashes of files from previous walks, stored in binary index file. <br/>
+ * Index is bound to one hash name, so changing the function or tree hash settings invalidates it. <br/>
+ * Hash is reused only if size, modification time and file key of the file are the same
+ * as when the hash was stored. <br/>
+ * Thread-safe.
+ * <p>
+ * <b>Index format:</b> magic, version, hash name and size, entries count, then for each entry:
+ * absolute path, size, modification time in nanoseconds, file key, hash.
+ */
+public class HashCache {
+    private static final int MAGIC = 0x464e5643;
+    private static final int VERSION = 2;
+
+    private final Path indexFile;
+    private final String hashName;
+    private final int hashSize;
+    private final Map<String, Entry> entries;
+
+    private HashCache(Path indexFile, String hashName, int hashSize, Map<String, Entry> entries) {
+        this.indexFile = indexFile;
+        this.hashName = hashName;
+        this.hashSize = hashSize;
+        this.entries = entries;
+    }
+
+    /**
+     * Loads cache from index file, empty cache is returned if the file doesn't exist.
+     *
+     * @param hashName name of hashes, see {@link HashFunction#name()} and {@link TreeHasher#name()}; <br/>
+     * @param hashSize size of hash in bytes. <br/>
+     * @throws IOException if the file cannot be read or is not a hash index of the given hashes
+     */
+    public static HashCache load(Path indexFile, String hashName, int hashSize) throws IOException {
+        Map<String, Entry> entries = new ConcurrentHashMap<>();
+        if (Files.notExists(indexFile)) {
+            return new HashCache(indexFile, hashName, hashSize, entries);
+        }
+        try (DataInputStream input = new DataInputStream(new BufferedInputStream(Files.newInputStream(indexFile)))) {
+            if (input.readInt() != MAGIC || input.readInt() != VERSION) {
+                throw new IOException("Not a hash index: " + indexFile);
+            }
+            String name = input.readUTF();
+            if (!name.equals(hashName) || input.readInt() != hashSize) {
+                throw new IOException("Hash index of other hashes: " + name);
+            }
+            for (int count = input.readInt(); count > 0; count--) {
+                String path = input.readUTF();
+                long size = input.readLong();
+                long modified = input.readLong();
+                String fileKey = input.readUTF();
+                byte[] hash = new byte[hashSize];
+                input.readFully(hash);
+                entries.put(path, new Entry(size, modified, fileKey, hash, false));
+            }
+        }
+        return new HashCache(indexFile, hashName, hashSize, entries);
+    }
+
+    /**
+     * Returns stored hash of the file or null if there is no hash for it or file is changed.
+     */
+    public byte[] get(Path file, BasicFileAttributes attrs) {
+        Entry entry = entries.get(key(file));
+        if (null == entry || !entry.matches(attrs)) {
+            return null;
+        }
+        entry.visited = true;
+        return entry.hash;
+    }
+
+    public void put(Path file, BasicFileAttributes attrs, byte[] hash) {
+        entries.put(key(file), new Entry(attrs.size(), modified(attrs), fileKey(attrs), hash, true));
+    }
+
+    /**
+     * Writes cache to its index file. Entries of files which were not visited since loading
+     * and don't exist anymore are evicted. <br/>
+     * Index is written to temporary file first, so interrupted save doesn't damage the old index.
+     */
+    public void save() throws IOException {
+        entries.entrySet().removeIf(e -> !e.getValue().visited
+                && Files.notExists(Path.of(e.getKey()), LinkOption.NOFOLLOW_LINKS));
+        Path tempFile = tempFile();
+        try (DataOutputStream output = new DataOutputStream(new BufferedOutputStream(Files.newOutputStream(tempFile)))) {
+            output.writeInt(MAGIC);
+            output.writeInt(VERSION);
+            output.writeUTF(hashName);
+            output.writeInt(hashSize);
+            output.writeInt(entries.size());
+            for (Map.Entry<String, Entry> e : entries.entrySet()) {
+                Entry entry = e.getValue();
+                output.writeUTF(e.getKey());
+                output.writeLong(entry.size);
+                output.writeLong(entry.modified);
+                output.writeUTF(entry.fileKey);
+                output.write(entry.hash);
+            }
+        }
+        Files.move(tempFile, indexFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    public Path indexFile() {
+        return indexFile;
+    }
+
+    /**
+     * File the index is written to before it is moved over the index file.
+     */
+    public Path tempFile() {
+        return indexFile.resolveSibling(indexFile.getFileName() + ".tmp");
+    }
+
+    private static String key(Path file) {
+        return file.toAbsolutePath().normalize().toString();
+    }
+
+    private static long modified(BasicFileAttributes attrs) {
+        return attrs.lastModifiedTime().to(TimeUnit.NANOSECONDS);
+    }
+
+    private static String fileKey(BasicFileAttributes attrs) {
+        return null == attrs.fileKey() ? "" : attrs.fileKey().toString();
+    }
+
+    private static class Entry {
+        private final long size;
+        private final long modified;
+        private final String fileKey;
+        private final byte[] hash;
+        private volatile boolean visited;
+
+        private Entry(long size, long modified, String fileKey, byte[] hash, boolean visited) {
+            this.size = size;
+            this.modified = modified;
+            this.fileKey = fileKey;
+            this.hash = hash;
+            this.visited = visited;
+        }
+
+        private boolean matches(BasicFileAttributes attrs) {
+            return size == attrs.size() && modified == modified(attrs) && fileKey.equals(fileKey(attrs));
+        }
+    }
+}
@@ -0,0 +1,40 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * Hash of file content, selected by {@link #name() name} from command line. <br/>
+ * Besides {@link HashFunctions built-in} functions, implementations are found by
+ * {@link java.util.ServiceLoader}, so another hash may be added by a jar in class path.
+ * Implementations must be thread-safe, all state of one file is kept in its {@link Hasher}.
+ */
+public interface HashFunction {
+
+    String name();
+
+    /**
+     * Size of digest in bytes.
+     */
+    int size();
+
+    /**
+     * New state for hashing content of one file.
+     */
+    Hasher newHasher();
+
+    /**
+     * Hash state of one file content. Not thread-safe.
+     */
+    interface Hasher {
+        /**
+         * Hashes bytes between position and limit of the buffer, position is moved to limit.
+         * Content is given by consecutive buffers, their boundaries don't affect the digest.
+         */
+        void update(ByteBuffer data);
+
+        /**
+         * Digest of all given bytes, numeric hashes are written in big-endian order.
+         */
+        byte[] digest();
+    }
+}
@@ -0,0 +1,53 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.util.ArrayList;
+import java.util.LinkedHashMap;
+import java.util.List;
+import java.util.Map;
+import java.util.ServiceLoader;
+import java.util.function.Supplier;
+
+/**
+ * Lookup of {@link HashFunction hash functions} by name.
+ */
+public final class HashFunctions {
+    public static final String DEFAULT = FNVHash.NAME;
+
+    private static final Map<String, Supplier<HashFunction>> BUILT_IN = new LinkedHashMap<>();
+
+    static {
+        BUILT_IN.put(FNVHash.NAME, FNVHash::new);
+        BUILT_IN.put(FNV1a64Hash.NAME, FNV1a64Hash::new);
+        BUILT_IN.put(XXHash64.NAME, XXHash64::new);
+        BUILT_IN.put(Murmur3Hash128.NAME, Murmur3Hash128::new);
+    }
+
+    private HashFunctions() {
+    }
+
+    /**
+     * Returns built-in function or the first one provided by {@link ServiceLoader} with the given name.
+     *
+     * @throws IllegalArgumentException if there is no function with such name
+     */
+    public static HashFunction forName(String name) {
+        Supplier<HashFunction> builtIn = BUILT_IN.get(name);
+        if (null != builtIn) {
+            return builtIn.get();
+        }
+        for (HashFunction function : ServiceLoader.load(HashFunction.class)) {
+            if (function.name().equals(name)) {
+                return function;
+            }
+        }
+        throw new IllegalArgumentException("Unknown hash function: " + name + ", available: " + names());
+    }
+
+    public static List<String> names() {
+        List<String> names = new ArrayList<>(BUILT_IN.keySet());
+        for (HashFunction function : ServiceLoader.load(HashFunction.class)) {
+            names.add(function.name());
+        }
+        return names;
+    }
+}
@@ -0,0 +1,93 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.nio.ByteBuffer;
+import java.nio.ByteOrder;
+
+/**
+ * MurmurHash3 x64 128 bit with zero seed, the wide hash for huge file counts. <br/>
+ * Content is consumed by 16-byte blocks of two 64 bit words.
+ * Digest is written as in the reference implementation: two little-endian words.
+ */
+public class Murmur3Hash128 implements HashFunction {
+    public static final String NAME = "murmur3-128";
+    private static final long C1 = 0x87c37b91114253d5L;
+    private static final long C2 = 0x4cf5ad432745937fL;
+    private static final int BLOCK = 16;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int size() {
+        return 2 * Long.BYTES;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new BlockHasher(BLOCK) {
+            private long h1;
+            private long h2;
+
+            @Override
+            protected void process(ByteBuffer data, int start, int end) {
+                long a1 = h1;
+                long a2 = h2;
+                for (int i = start; i < end; i += BLOCK) {
+                    a1 ^= mixK1(getLong(data, i));
+                    a1 = Long.rotateLeft(a1, 27) + a2;
+                    a1 = a1 * 5 + 0x52dce729;
+                    a2 ^= mixK2(getLong(data, i + 8));
+                    a2 = Long.rotateLeft(a2, 31) + a1;
+                    a2 = a2 * 5 + 0x38495ab5;
+                }
+                h1 = a1;
+                h2 = a2;
+            }
+
+            @Override
+            protected byte[] finish(ByteBuffer tail, long length) {
+                long k1 = 0;
+                long k2 = 0;
+                int start = tail.position();
+                for (int i = tail.limit() - 1; i >= start; i--) {
+                    long b = tail.get(i) & 0xff;
+                    if (i - start >= Long.BYTES) {
+                        k2 = k2 << 8 | b;
+                    } else {
+                        k1 = k1 << 8 | b;
+                    }
+                }
+                long a1 = h1 ^ mixK1(k1);
+                long a2 = h2 ^ mixK2(k2);
+                a1 ^= length;
+                a2 ^= length;
+                a1 += a2;
+                a2 += a1;
+                a1 = fmix(a1);
+                a2 = fmix(a2);
+                a1 += a2;
+                a2 += a1;
+                return ByteBuffer.allocate(size()).order(ByteOrder.LITTLE_ENDIAN).putLong(a1).putLong(a2).array();
+            }
+        };
+    }
+
+    private static long mixK1(long k1) {
+        return Long.rotateLeft(k1 * C1, 31) * C2;
+    }
+
+    private static long mixK2(long k2) {
+        return Long.rotateLeft(k2 * C2, 33) * C1;
+    }
+
+    private static long fmix(long k) {
+        k ^= k >>> 33;
+        k *= 0xff51afd7ed558ccdL;
+        k ^= k >>> 33;
+        k *= 0xc4ceb9fe1a85ec53L;
+        k ^= k >>> 33;
+        return k;
+    }
+}
@@ -0,0 +1,352 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ArrayBlockingQueue;
+import java.util.concurrent.BlockingQueue;
+import java.util.concurrent.CompletableFuture;
+import java.util.concurrent.ExecutionException;
+import java.util.concurrent.ExecutorService;
+import java.util.concurrent.Executors;
+import java.util.concurrent.Future;
+import java.util.concurrent.ThreadPoolExecutor;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.AtomicInteger;
+import java.util.concurrent.atomic.AtomicReference;
+
+import static java.nio.file.FileVisitResult.CONTINUE;
+import static java.nio.file.FileVisitResult.TERMINATE;
+
+/**
+ * Walks the same input as {@link RecursiveWalker}, but roots are traversed and files are hashed
+ * on worker pools. <br/>
+ * All queues between reading, traversal, hashing and writing are bounded, so a fast stage
+ * waits for a slow one instead of filling the heap. <br/>
+ * If order is preserved, output is the same as in the sequential walk,
+ * otherwise lines are written as soon as files are hashed.
+ */
+public class ParallelRecursiveWalker extends RecursiveWalker {
+    private static final int QUEUE_CAPACITY_PER_THREAD = 64;
+    private static final Future<HashedFile> END_OF_ROOT = CompletableFuture.completedFuture(null);
+    private static final HashedFile END_OF_RESULTS = new HashedFile(null, null);
+
+    private final int threads;
+    private final boolean ordered;
+    private final int queueCapacity;
+    private final RootWalk endOfInput = new RootWalk(null, 0);
+
+    /**
+     * @param threads number of threads for each of traversal and hashing pools; <br/>
+     * @param ordered whether output lines must go in the order of the sequential walk. <br/>
+     */
+    public ParallelRecursiveWalker(int threads, boolean ordered) {
+        this(threads, ordered, new FileHasher(), false);
+    }
+
+    /**
+     * @param threads number of threads for each of traversal and hashing pools; <br/>
+     * @param ordered whether output lines must go in the order of the sequential walk; <br/>
+     * @param hasher  hash of visited files; <br/>
+     * @param outputChannel whether to write result through {@link java.nio.channels.FileChannel}. <br/>
+     */
+    public ParallelRecursiveWalker(int threads, boolean ordered, FileHasher hasher, boolean outputChannel) {
+        super(hasher, outputChannel);
+        if (threads < 1) {
+            throw new IllegalArgumentException("Threads number must be positive: " + threads);
+        }
+        this.threads = threads;
+        this.ordered = ordered;
+        this.queueCapacity = threads * QUEUE_CAPACITY_PER_THREAD;
+    }
+
+    @Override
+    public void walk(Path inputFile, Path outputFile) throws IOException {
+        ExecutorService readerThread = Executors.newSingleThreadExecutor();
+        ExecutorService traversePool = newBoundedPool();
+        ExecutorService hashPool = newBoundedPool();
+        try (BufferedReader input = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8);
+             ResultWriter output = openOutput(outputFile)) {
+            if (ordered) {
+                walkOrdered(input, output, readerThread, traversePool, hashPool);
+            } else {
+                walkUnordered(input, output, readerThread, traversePool, hashPool);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            throw new IOException("Walk interrupted", e);
+        } finally {
+            readerThread.shutdownNow();
+            traversePool.shutdownNow();
+            hashPool.shutdownNow();
+        }
+    }
+
+    /**
+     * Roots go to the writer in input order, and every root keeps its files in traversal order.
+     * The earliest unfinished root is always running, because pools take tasks in FIFO order.
+     */
+    private void walkOrdered(BufferedReader input, ResultWriter output, ExecutorService readerThread,
+                             ExecutorService traversePool, ExecutorService hashPool)
+            throws IOException, InterruptedException {
+        BlockingQueue<RootWalk> roots = new ArrayBlockingQueue<>(threads * 2);
+        Future<?> reading = readerThread.submit(() -> {
+            IOException failure = null;
+            try {
+                for (String path; null != (path = input.readLine()); ) {
+                    RootWalk root = new RootWalk(path, queueCapacity);
+                    roots.put(root);
+                    traversePool.submit(() -> root.traverse(hashPool));
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            roots.put(endOfInput);
+            if (null != failure) {
+                throw failure;
+            }
+            return null;
+        });
+        for (RootWalk root; endOfInput != (root = roots.take()); ) {
+            for (Future<HashedFile> line; END_OF_ROOT != (line = root.lines.take()); ) {
+                writeLine(output, getResult(line));
+            }
+        }
+        getResult(reading);
+    }
+
+    /**
+     * Lines are written in the order files are hashed. Reading, every root and every file are counted
+     * as in flight until done, and the one which leaves nothing in flight stops the writer. <br/>
+     * Failure of any traversal or hashing task fails the walk after the lines already hashed are written.
+     * Once the writer has stopped, tasks don't wait for room in the results, so no pool thread is left blocked.
+     */
+    private void walkUnordered(BufferedReader input, ResultWriter output, ExecutorService readerThread,
+                               ExecutorService traversePool, ExecutorService hashPool)
+            throws IOException, InterruptedException {
+        Results results = new Results(queueCapacity);
+        AtomicReference<Throwable> taskFailure = new AtomicReference<>();
+        Future<?> reading = readerThread.submit(() -> {
+            IOException failure = null;
+            try {
+                for (String path; null != (path = input.readLine()); ) {
+                    String root = path;
+                    results.enter();
+                    traversePool.submit(() -> {
+                        try {
+                            traverse(root, (line) -> {
+                                results.enter();
+                                hashPool.submit(() -> {
+                                    try {
+                                        results.put(line.get());
+                                    } catch (RuntimeException | Error e) {
+                                        taskFailure.compareAndSet(null, e);
+                                    } finally {
+                                        results.leave();
+                                    }
+                                    return null;
+                                });
+                            });
+                        } catch (IOException | RuntimeException | Error e) {
+                            taskFailure.compareAndSet(null, e);
+                        } finally {
+                            results.leave();
+                        }
+                        return null;
+                    });
+                }
+            } catch (IOException e) {
+                failure = e;
+            }
+            results.leave();
+            if (null != failure) {
+                throw failure;
+            }
+            return null;
+        });
+        try {
+            for (HashedFile line; END_OF_RESULTS != (line = results.lines.take()); ) {
+                writeLine(output, line);
+            }
+        } finally {
+            results.writing = false;
+        }
+        getResult(reading);
+        if (null != taskFailure.get()) {
+            throw walkFailure(taskFailure.get());
+        }
+    }
+
+    private ExecutorService newBoundedPool() {
+        return new ThreadPoolExecutor(threads, threads, 0, TimeUnit.MILLISECONDS,
+                new ArrayBlockingQueue<>(queueCapacity), new ThreadPoolExecutor.CallerRunsPolicy());
+    }
+
+    private static void writeLine(ResultWriter output, HashedFile line) throws IOException {
+        output.write(line.hash, line.path);
+    }
+
+    private static <T> T getResult(Future<T> future) throws IOException, InterruptedException {
+        try {
+            return future.get();
+        } catch (ExecutionException e) {
+            throw walkFailure(e.getCause());
+        }
+    }
+
+    private static IOException walkFailure(Throwable cause) {
+        if (cause instanceof IOException) {
+            return (IOException) cause;
+        }
+        return new IOException("Walk failed: " + cause.getMessage(), cause);
+    }
+
+    /**
+     * Traverses root and gives to consumer the result lines of its files in traversal order.
+     * Hashes are not computed here, consumer decides where to compute them.
+     */
+    private void traverse(String path, LineConsumer consumer) throws IOException, InterruptedException {
+        Path root;
+        try {
+            root = Paths.get(path);
+        } catch (InvalidPathException e) {
+            consumer.accept(() -> new HashedFile(hasher.errorHash(e), path));
+            return;
+        }
+        LineVisitor visitor = new LineVisitor(consumer, hasher);
+        Files.walkFileTree(root, visitor);
+        if (visitor.interrupted) {
+            throw new InterruptedException();
+        }
+    }
+
+    @FunctionalInterface
+    private interface LineConsumer {
+        void accept(ResultLine line) throws InterruptedException;
+    }
+
+    @FunctionalInterface
+    private interface ResultLine {
+        HashedFile get();
+    }
+
+    private static class HashedFile {
+        private final FileHash hash;
+        private final String path;
+
+        private HashedFile(FileHash hash, String path) {
+            this.hash = hash;
+            this.path = path;
+        }
+    }
+
+    /**
+     * Hashed lines of the unordered walk, and the count of reading, roots and files in flight.
+     */
+    private static class Results {
+        private static final long OFFER_TIMEOUT_MILLIS = 100;
+
+        private final BlockingQueue<HashedFile> lines;
+        private final AtomicInteger inFlight = new AtomicInteger(1);
+        private volatile boolean writing = true;
+
+        private Results(int capacity) {
+            this.lines = new ArrayBlockingQueue<>(capacity);
+        }
+
+        private void enter() {
+            inFlight.incrementAndGet();
+        }
+
+        /**
+         * The last one to leave stops the writer.
+         */
+        private void leave() throws InterruptedException {
+            if (inFlight.decrementAndGet() == 0) {
+                put(END_OF_RESULTS);
+            }
+        }
+
+        /**
+         * Waits for room while the writer takes lines, the line is dropped if the writer has stopped.
+         */
+        private void put(HashedFile line) throws InterruptedException {
+            while (writing) {
+                if (lines.offer(line, OFFER_TIMEOUT_MILLIS, TimeUnit.MILLISECONDS)) {
+                    return;
+                }
+            }
+        }
+    }
+
+    /**
+     * Time between visits, except waiting for the consumer, is recorded as {@link WalkMetrics.Phase#STAT}.
+     */
+    private static class LineVisitor extends SimpleFileVisitor<Path> {
+        private final LineConsumer consumer;
+        private final FileHasher hasher;
+        private final WalkMetrics metrics;
+        private long traversed;
+        private boolean interrupted;
+
+        private LineVisitor(LineConsumer consumer, FileHasher hasher) {
+            this.consumer = consumer;
+            this.hasher = hasher;
+            this.metrics = hasher.metrics();
+            this.traversed = metrics.start();
+        }
+
+        @Override
+        public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+            metrics.record(WalkMetrics.Phase.STAT, traversed);
+            return accept(() -> new HashedFile(hasher.hashOrError(file, attrs), file.toString()));
+        }
+
+        @Override
+        public FileVisitResult visitFileFailed(Path file, IOException exc) {
+            metrics.record(WalkMetrics.Phase.STAT, traversed);
+            return accept(() -> new HashedFile(hasher.errorHash(exc), file.toString()));
+        }
+
+        private FileVisitResult accept(ResultLine line) {
+            try {
+                consumer.accept(line);
+            } catch (InterruptedException e) {
+                interrupted = true;
+                return TERMINATE;
+            }
+            traversed = metrics.start();
+            return CONTINUE;
+        }
+    }
+
+    /**
+     * Single root of the ordered walk with its own bounded queue of result lines.
+     */
+    private class RootWalk {
+        private final String path;
+        private final BlockingQueue<Future<HashedFile>> lines;
+
+        private RootWalk(String path, int capacity) {
+            this.path = path;
+            this.lines = null == path ? null : new ArrayBlockingQueue<>(capacity);
+        }
+
+        private Void traverse(ExecutorService hashPool) throws InterruptedException {
+            try {
+                ParallelRecursiveWalker.this.traverse(path, (line) -> lines.put(hashPool.submit(line::get)));
+            } catch (IOException e) {
+                lines.put(CompletableFuture.failedFuture(e));
+            }
+            lines.put(END_OF_ROOT);
+            return null;
+        }
+    }
+}
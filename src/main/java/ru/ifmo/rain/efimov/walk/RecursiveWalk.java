@@ -1,5 +1,6 @@
 package ru.ifmo.rain.efimov.walk;
 
+import javax.management.JMException;
 import java.io.IOException;
 import java.nio.file.Files;
 import java.nio.file.InvalidPathException;
@@ -11,13 +12,36 @@ import java.nio.file.Paths;
  * 1. Path to file with list of files or directories to walk <br/>
  * 2. File name with result (will created if not exists). <br/>
  * <p>
+ * Options may go before them: <br/>
+ * -threads 'number' - traverse and hash files in parallel with the given number of threads; <br/>
+ * -ordered - keep the order of the sequential walk in parallel mode; <br/>
+ * -buffer 'bytes' - size of direct read buffer; <br/>
+ * -map 'bytes' - files of this size or larger are memory-mapped; <br/>
+ * -cache 'index file' - reuse hashes of unchanged files from previous walks and store new ones; <br/>
+ * -hash 'name' - hash function, see {@link HashFunctions#names()}; <br/>
+ * -links - hash hard links and files visited from several roots once; <br/>
+ * -duplicates - write groups of files with the same content instead of all hashes,
+ * see {@link DuplicatesWalker}; <br/>
+ * -channel - write result through file channel; <br/>
+ * -watch 'debounce milliseconds' - after the walk keep output up to date until interrupted,
+ * see {@link WatchingWalker}; <br/>
+ * -tree 'chunk bytes' - hash large files by chunks in parallel, at least 4096 bytes, see {@link TreeHasher}; <br/>
+ * -stats 'seconds' - print throughput, errors and phase latencies to standard error with this period
+ * and at the end, and publish them over JMX, see {@link WalkMetrics}. <br/>
+ * Parallel walk, -duplicates and -watch are different modes, options of two modes are rejected. <br/>
+ * <p>
  * Result of program is list of hex hash of files and files in directories in format:
- * 'hex hash' 'path to file' (without quotes with space). FNVHash used.
+ * 'hex hash' 'path to file' (without quotes with space). FNV-1 32 bit hash used by default.
  */
 public class RecursiveWalk {
 
     private static final String START_OF_CMD_MSG = "------------------------RECURSIVE_WALK_MSG: ";
     private static final String START_OF_CMD_ERROR_MSG = "------------------------RECURSIVE_WALK_ERROR: ";
+    private static final String COMMAND_FORMAT = "command format: " +
+            "\n\tWalk [-threads <number> [-ordered] | -duplicates | -watch <debounce milliseconds>]" +
+            "\n\t\t[-buffer <bytes>] [-map <bytes>] [-cache <index file>] [-hash <name>] [-links] [-channel]" +
+            "\n\t\t[-tree <chunk bytes>] [-stats <seconds>]" +
+            "\n\t\t<input file> <output file>";
 
     public static void main(String[] args) {
         try {
@@ -28,32 +52,158 @@ public class RecursiveWalk {
     }
 
     private static void mainLogic(String[] args) {
-        if (null ==args || args.length != 2) {
-            cmdMsg("command format: " +
-                    "\n\tWalk <input file> <output file>");
+        if (null == args || args.length < 2) {
+            cmdMsg(COMMAND_FORMAT);
+            return;
+        }
+        int threads = 0;
+        boolean ordered = false;
+        int bufferSize = ContentReader.DEFAULT_BUFFER_SIZE;
+        long mapThreshold = ContentReader.DEFAULT_MAP_THRESHOLD;
+        String cacheFile = null;
+        String hashName = HashFunctions.DEFAULT;
+        boolean links = false;
+        boolean duplicates = false;
+        boolean channel = false;
+        long debounce = -1;
+        long chunkSize = 0;
+        long statsPeriod = 0;
+        int i = 0;
+        try {
+            for (; i < args.length - 2; i++) {
+                switch (args[i]) {
+                    case "-threads":
+                        threads = Integer.parseInt(args[++i]);
+                        break;
+                    case "-ordered":
+                        ordered = true;
+                        break;
+                    case "-buffer":
+                        bufferSize = Integer.parseInt(args[++i]);
+                        break;
+                    case "-map":
+                        mapThreshold = Long.parseLong(args[++i]);
+                        break;
+                    case "-cache":
+                        cacheFile = args[++i];
+                        break;
+                    case "-hash":
+                        hashName = args[++i];
+                        break;
+                    case "-links":
+                        links = true;
+                        break;
+                    case "-duplicates":
+                        duplicates = true;
+                        break;
+                    case "-channel":
+                        channel = true;
+                        break;
+                    case "-watch":
+                        debounce = Long.parseLong(args[++i]);
+                        break;
+                    case "-tree":
+                        chunkSize = Long.parseLong(args[++i]);
+                        break;
+                    case "-stats":
+                        statsPeriod = Long.parseLong(args[++i]);
+                        if (statsPeriod < 1) {
+                            cmdMsg(COMMAND_FORMAT);
+                            return;
+                        }
+                        break;
+                    default:
+                        cmdMsg(COMMAND_FORMAT);
+                        return;
+                }
+            }
+        } catch (NumberFormatException e) {
+            cmdMsg("Error, wrong number format: " + e.getMessage());
+            return;
+        }
+        boolean parallel = threads > 0 || ordered;
+        boolean watch = debounce >= 0;
+        if (i != args.length - 2 || threads < 0 || bufferSize < 1 || mapThreshold < 0 || chunkSize < 0
+                || parallel && (duplicates || watch) || duplicates && watch) {
+            cmdMsg(COMMAND_FORMAT);
+            return;
+        }
+        Path[] files = new Path[3];
+        try {
+            files[0] = Paths.get(args[i]);
+            files[1] = Paths.get(args[i + 1]);
+            files[2] = null == cacheFile ? null : Paths.get(cacheFile);
+        } catch (InvalidPathException e) {
+            cmdMsg("Invalid path given");
+            return;
+        }
+        if (Files.notExists(files[0])) {
+            cmdMsg("Input file doesn't exist");
+            return;
+        }
+        HashFunction function;
+        try {
+            function = HashFunctions.forName(hashName);
+        } catch (IllegalArgumentException e) {
+            cmdMsg(e.getMessage());
+            return;
+        }
+        WalkMetrics metrics = statsPeriod == 0 ? WalkMetrics.DISABLED : new WalkMetrics();
+        ContentReader reader = new ContentReader(bufferSize, mapThreshold, metrics);
+        TreeHasher treeHasher;
+        try {
+            treeHasher = chunkSize == 0 ? null : new TreeHasher(function, reader, chunkSize);
+        } catch (IllegalArgumentException e) {
+            cmdMsg(e.getMessage());
+            return;
+        }
+        String cacheName = null == treeHasher ? function.name() : treeHasher.name();
+        HashCache cache = null == files[2] ? null : loadCache(files[2], cacheName, function.size());
+        FileHasher hasher = new FileHasher(function, reader, treeHasher, cache, links);
+        RecursiveWalker walker;
+        if (watch) {
+            walker = new WatchingWalker(hasher, channel, debounce, cache);
+        } else if (duplicates) {
+            walker = new DuplicatesWalker(hasher, channel);
+        } else if (threads == 0) {
+            walker = new RecursiveWalker(hasher, channel);
         } else {
-            Path[] files = new Path[2];
-            try {
-                files[0] = Paths.get(args[0]);
-                files[1] = Paths.get(args[1]);
-            } catch (InvalidPathException e) {
-                cmdMsg("Invalid path given");
-                return;
+            walker = new ParallelRecursiveWalker(threads, ordered, hasher, channel);
+        }
+        try {
+            if (statsPeriod > 0) {
+                metrics.start(statsPeriod, System.err);
             }
-            if (Files.notExists(files[0])) {
-                cmdMsg("Input file doesn't exist");
-                return;
+            walker.walk(files[0], files[1]);
+            if (null != cache) {
+                cache.save();
             }
-            try {
-                walk(files[0], files[1]);
-            } catch (IOException e) {
-                cmdErr(e);
+        } catch (IOException | JMException e) {
+            cmdErr(e);
+        } finally {
+            if (statsPeriod > 0) {
+                metrics.close();
+                System.err.println(metrics.summary());
             }
         }
     }
 
-    private static void walk(Path in, Path out) throws IOException {
-        new RecursiveWalker().walk(in, out);
+    /**
+     * Broken index is not a reason to fail the walk, it is replaced by a new one.
+     */
+    private static HashCache loadCache(Path indexFile, String hashName, int hashSize) {
+        try {
+            return HashCache.load(indexFile, hashName, hashSize);
+        } catch (IOException e) {
+            cmdMsg("Hash cache is ignored: " + e.getMessage());
+            try {
+                Files.deleteIfExists(indexFile);
+                return HashCache.load(indexFile, hashName, hashSize);
+            } catch (IOException deleteError) {
+                cmdErr(deleteError);
+                return null;
+            }
+        }
     }
 
     private static void cmdMsg(String m) {
@@ -1,7 +1,6 @@
 package ru.ifmo.rain.efimov.walk;
 
 import java.io.BufferedReader;
-import java.io.BufferedWriter;
 import java.io.IOException;
 import java.nio.charset.StandardCharsets;
 import java.nio.file.Files;
@@ -10,24 +9,42 @@ import java.nio.file.Path;
 import java.nio.file.Paths;
 
 public class RecursiveWalker {
+    protected final FileHasher hasher;
+    private final boolean outputChannel;
+
+    public RecursiveWalker() {
+        this(new FileHasher(), false);
+    }
+
+    /**
+     * @param hasher        hash of visited files; <br/>
+     * @param outputChannel whether to write result through {@link java.nio.channels.FileChannel}. <br/>
+     */
+    public RecursiveWalker(FileHasher hasher, boolean outputChannel) {
+        this.hasher = hasher;
+        this.outputChannel = outputChannel;
+    }
 
     public void walk(Path inputFile, Path outputFile) throws IOException {
         try (BufferedReader input = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8);
-             BufferedWriter output = Files.newBufferedWriter(outputFile, StandardCharsets.UTF_8)) {
+             ResultWriter output = openOutput(outputFile)) {
             for (String path; null != (path = input.readLine()); ) {
                 walkPath(path, output);
             }
         }
     }
 
-    protected void walkPath(String path, BufferedWriter output) throws IOException {
+    protected ResultWriter openOutput(Path outputFile) throws IOException {
+        return new ResultWriter(outputFile, ResultWriter.DEFAULT_BUFFER_SIZE, outputChannel, hasher.metrics());
+    }
+
+    protected void walkPath(String path, ResultWriter output) throws IOException {
         try {
             Path current = Paths.get(path);
-            FilesHashHexWriterVisitor visitor = new FilesHashHexWriterVisitor(output);
+            FilesHashHexWriterVisitor visitor = new FilesHashHexWriterVisitor(output, hasher);
             Files.walkFileTree(current, visitor);
         } catch (InvalidPathException e) {
-            output.write(FNVHash.ERROR_HASH + ' ' + path);
-            output.newLine();
+            output.write(hasher.errorHash(e), path);
         }
     }
 }
@@ -0,0 +1,152 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.io.Closeable;
+import java.io.IOException;
+import java.io.OutputStream;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.Files;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+
+/**
+ * Writes 'hex hash' 'path' lines in UTF-8, tree hashes are written with {@link FileHash#TREE_MARKER}. <br/>
+ * Hex digits and encoded path go straight into one large buffer which is written out when full,
+ * so no strings are built per line. Output goes to a stream, or through a {@link FileChannel}
+ * from a direct buffer. Unpaired surrogates of a path are written as '?'. <br/>
+ * Not thread-safe.
+ */
+public class ResultWriter implements Closeable {
+    public static final int DEFAULT_BUFFER_SIZE = 1 << 20;
+    private static final byte[] HEX_DIGITS = "0123456789abcdef".getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] TREE_MARKER = FileHash.TREE_MARKER.getBytes(StandardCharsets.US_ASCII);
+    private static final byte[] LINE_SEPARATOR = System.lineSeparator().getBytes(StandardCharsets.US_ASCII);
+    private static final int MAX_CHAR_BYTES = 4;
+    private static final int MIN_BUFFER_SIZE = 256;
+
+    private final OutputStream stream;
+    private final FileChannel channel;
+    private final ByteBuffer buffer;
+    private final WalkMetrics metrics;
+
+    /**
+     * @param file       created or truncated; <br/>
+     * @param bufferSize bytes written to file at once; <br/>
+     * @param useChannel whether to write through {@link FileChannel}; <br/>
+     * @param metrics    receives write time of each line. <br/>
+     */
+    public ResultWriter(Path file, int bufferSize, boolean useChannel, WalkMetrics metrics) throws IOException {
+        if (bufferSize < MIN_BUFFER_SIZE) {
+            throw new IllegalArgumentException("Output buffer is too small: " + bufferSize);
+        }
+        if (useChannel) {
+            stream = null;
+            channel = FileChannel.open(file, StandardOpenOption.CREATE, StandardOpenOption.WRITE,
+                    StandardOpenOption.TRUNCATE_EXISTING);
+            buffer = ByteBuffer.allocateDirect(bufferSize);
+        } else {
+            stream = Files.newOutputStream(file);
+            channel = null;
+            buffer = ByteBuffer.allocate(bufferSize);
+        }
+        this.metrics = metrics;
+    }
+
+    public ResultWriter(Path file, int bufferSize, boolean useChannel) throws IOException {
+        this(file, bufferSize, useChannel, WalkMetrics.DISABLED);
+    }
+
+    public ResultWriter(Path file) throws IOException {
+        this(file, DEFAULT_BUFFER_SIZE, false);
+    }
+
+    public void write(FileHash hash, Path file) throws IOException {
+        write(hash, file.toString());
+    }
+
+    public void write(FileHash hash, String path) throws IOException {
+        long start = metrics.start();
+        byte[] bytes = hash.bytes();
+        if (buffer.remaining() < TREE_MARKER.length + 2 * bytes.length + 1) {
+            flushBuffer();
+        }
+        if (hash.isTree()) {
+            buffer.put(TREE_MARKER);
+        }
+        for (byte b : bytes) {
+            buffer.put(HEX_DIGITS[(b >> 4) & 0xf]);
+            buffer.put(HEX_DIGITS[b & 0xf]);
+        }
+        buffer.put((byte) ' ');
+        writeUtf8(path);
+        newLine();
+        metrics.record(WalkMetrics.Phase.WRITE, start);
+    }
+
+    public void newLine() throws IOException {
+        if (buffer.remaining() < LINE_SEPARATOR.length) {
+            flushBuffer();
+        }
+        buffer.put(LINE_SEPARATOR);
+    }
+
+    public void flush() throws IOException {
+        flushBuffer();
+        if (null != stream) {
+            stream.flush();
+        }
+    }
+
+    @Override
+    public void close() throws IOException {
+        try {
+            flushBuffer();
+        } finally {
+            if (null != stream) {
+                stream.close();
+            } else {
+                channel.close();
+            }
+        }
+    }
+
+    private void writeUtf8(String s) throws IOException {
+        for (int i = 0, length = s.length(); i < length; i++) {
+            if (buffer.remaining() < MAX_CHAR_BYTES) {
+                flushBuffer();
+            }
+            char c = s.charAt(i);
+            if (c < 0x80) {
+                buffer.put((byte) c);
+            } else if (c < 0x800) {
+                buffer.put((byte) (0xc0 | c >> 6));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            } else if (Character.isHighSurrogate(c) && i + 1 < length && Character.isLowSurrogate(s.charAt(i + 1))) {
+                int codePoint = Character.toCodePoint(c, s.charAt(++i));
+                buffer.put((byte) (0xf0 | codePoint >> 18));
+                buffer.put((byte) (0x80 | codePoint >> 12 & 0x3f));
+                buffer.put((byte) (0x80 | codePoint >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | codePoint & 0x3f));
+            } else if (Character.isSurrogate(c)) {
+                buffer.put((byte) '?');
+            } else {
+                buffer.put((byte) (0xe0 | c >> 12));
+                buffer.put((byte) (0x80 | c >> 6 & 0x3f));
+                buffer.put((byte) (0x80 | c & 0x3f));
+            }
+        }
+    }
+
+    private void flushBuffer() throws IOException {
+        buffer.flip();
+        if (null != stream) {
+            stream.write(buffer.array(), buffer.arrayOffset(), buffer.limit());
+        } else {
+            while (buffer.hasRemaining()) {
+                channel.write(buffer);
+            }
+        }
+        buffer.clear();
+    }
+}
@@ -0,0 +1,129 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.io.IOException;
+import java.io.UncheckedIOException;
+import java.nio.ByteBuffer;
+import java.nio.channels.FileChannel;
+import java.nio.file.Path;
+import java.nio.file.StandardOpenOption;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.concurrent.ForkJoinPool;
+import java.util.concurrent.RecursiveAction;
+
+/**
+ * Hash of large files by fixed-size chunks, so one huge file is hashed by all cores. <br/>
+ * Chunks are hashed in parallel by {@link ForkJoinPool}, then the hash function is applied
+ * to the concatenation of chunk digests, which gives the root hash. Root hash depends on chunk size,
+ * so it is not equal to the plain hash of the same file. <br/>
+ * Chunks smaller than a page are rejected, and a file of more than {@link #MAX_CHUNKS} chunks is not hashed,
+ * so digests of chunks are never more than a few megabytes. <br/>
+ * Thread-safe.
+ */
+public class TreeHasher {
+    public static final long DEFAULT_CHUNK_SIZE = 1 << 24;
+    /**
+     * Files smaller than this number of chunks are hashed by whole content.
+     */
+    public static final int THRESHOLD_CHUNKS = 4;
+    public static final long MIN_CHUNK_SIZE = 1 << 12;
+    public static final int MAX_CHUNKS = 1 << 20;
+
+    private final HashFunction function;
+    private final ContentReader reader;
+    private final long chunkSize;
+    private final ForkJoinPool pool;
+
+    public TreeHasher(HashFunction function, ContentReader reader, long chunkSize) {
+        this(function, reader, chunkSize, ForkJoinPool.commonPool());
+    }
+
+    /**
+     * @param function  hash of chunks and of the root; <br/>
+     * @param reader    reads chunks; <br/>
+     * @param chunkSize size of chunk in bytes, the last chunk may be smaller; <br/>
+     * @param pool      hashes chunks. <br/>
+     */
+    public TreeHasher(HashFunction function, ContentReader reader, long chunkSize, ForkJoinPool pool) {
+        if (chunkSize < MIN_CHUNK_SIZE) {
+            throw new IllegalArgumentException("Chunk size must be at least " + MIN_CHUNK_SIZE + ": " + chunkSize);
+        }
+        this.function = function;
+        this.reader = reader;
+        this.chunkSize = chunkSize;
+        this.pool = pool;
+    }
+
+    /**
+     * Whether the file is large enough to be hashed by chunks.
+     */
+    public boolean applies(BasicFileAttributes attrs) {
+        return attrs.isRegularFile() && attrs.size() / THRESHOLD_CHUNKS >= chunkSize;
+    }
+
+    /**
+     * Name of hashes produced by this hasher, differs for different functions and chunk sizes.
+     */
+    public String name() {
+        return function.name() + "/tree:" + chunkSize;
+    }
+
+    public byte[] hash(Path file) throws IOException {
+        try (FileChannel channel = FileChannel.open(file, StandardOpenOption.READ)) {
+            long size = channel.size();
+            long chunks = size / chunkSize + (size % chunkSize == 0 ? 0 : 1);
+            if (chunks > MAX_CHUNKS) {
+                throw new IOException("File of " + size + " bytes has more than " + MAX_CHUNKS
+                        + " chunks of " + chunkSize + " bytes");
+            }
+            byte[][] digests = new byte[(int) chunks][];
+            try {
+                pool.invoke(new ChunksTask(channel, size, digests, 0, digests.length));
+            } catch (UncheckedIOException e) {
+                throw e.getCause();
+            }
+            HashFunction.Hasher root = function.newHasher();
+            for (byte[] digest : digests) {
+                root.update(ByteBuffer.wrap(digest));
+            }
+            return root.digest();
+        }
+    }
+
+    /**
+     * Hashes chunks from start to end (exclusive), splits range in halves until one chunk is left.
+     * Positional reads of the channel are used, so all tasks share it.
+     */
+    private class ChunksTask extends RecursiveAction {
+        private static final long serialVersionUID = 1L;
+
+        private final FileChannel channel;
+        private final long size;
+        private final byte[][] digests;
+        private final int start;
+        private final int end;
+
+        private ChunksTask(FileChannel channel, long size, byte[][] digests, int start, int end) {
+            this.channel = channel;
+            this.size = size;
+            this.digests = digests;
+            this.start = start;
+            this.end = end;
+        }
+
+        @Override
+        protected void compute() {
+            if (end - start > 1) {
+                int middle = (start + end) >>> 1;
+                invokeAll(new ChunksTask(channel, size, digests, start, middle),
+                        new ChunksTask(channel, size, digests, middle, end));
+                return;
+            }
+            long position = start * chunkSize;
+            try {
+                digests[start] = reader.hash(channel, position, Math.min(chunkSize, size - position), function);
+            } catch (IOException e) {
+                throw new UncheckedIOException(e);
+            }
+        }
+    }
+}
@@ -0,0 +1,188 @@
+package ru.ifmo.rain.efimov.walk;
+
+import ru.ifmo.rain.efimov.metrics.LatencyHistogram;
+
+import javax.management.JMException;
+import javax.management.MBeanServer;
+import javax.management.ObjectName;
+import java.io.PrintStream;
+import java.lang.management.ManagementFactory;
+import java.util.EnumMap;
+import java.util.LinkedHashMap;
+import java.util.Map;
+import java.util.TreeMap;
+import java.util.concurrent.ConcurrentHashMap;
+import java.util.concurrent.Executors;
+import java.util.concurrent.ScheduledExecutorService;
+import java.util.concurrent.TimeUnit;
+import java.util.concurrent.atomic.LongAdder;
+
+/**
+ * Counters and per-phase latency histograms of a walk. <br/>
+ * Phases: <br/>
+ * STAT - traversal between visitor calls: reading directories and file attributes; <br/>
+ * OPEN - opening file channel; <br/>
+ * READ - reading or mapping file content; <br/>
+ * HASH - hash function over read bytes; <br/>
+ * WRITE - writing result line. <br/>
+ * READ much larger than HASH means that the walk is I/O-bound, and vice versa. <br/>
+ * {@link #DISABLED} metrics record nothing and don't read the clock. Thread-safe.
+ */
+public class WalkMetrics implements WalkMetricsMXBean, AutoCloseable {
+    public static final WalkMetrics DISABLED = new WalkMetrics(false);
+    private static final String OBJECT_NAME = "ru.ifmo.rain.efimov.walk:type=WalkMetrics";
+    private static final double MEGABYTE = 1 << 20;
+
+    public enum Phase {
+        STAT, OPEN, READ, HASH, WRITE
+    }
+
+    private final boolean enabled;
+    private final long startNanos = System.nanoTime();
+    private final LongAdder files = new LongAdder();
+    private final LongAdder bytes = new LongAdder();
+    private final Map<String, LongAdder> errors = new ConcurrentHashMap<>();
+    private final Map<Phase, LatencyHistogram> latencies = new EnumMap<>(Phase.class);
+    private ScheduledExecutorService reporter;
+    private ObjectName objectName;
+
+    private WalkMetrics(boolean enabled) {
+        this.enabled = enabled;
+        for (Phase phase : Phase.values()) {
+            latencies.put(phase, new LatencyHistogram());
+        }
+    }
+
+    public WalkMetrics() {
+        this(true);
+    }
+
+    /**
+     * Registers metrics as MBean and prints a summary to the stream every period,
+     * both are stopped by {@link #close()}.
+     */
+    public void start(long periodSeconds, PrintStream out) throws JMException {
+        MBeanServer server = ManagementFactory.getPlatformMBeanServer();
+        objectName = new ObjectName(OBJECT_NAME);
+        server.registerMBean(this, objectName);
+        reporter = Executors.newSingleThreadScheduledExecutor(runnable -> {
+            Thread thread = new Thread(runnable, "walk-metrics");
+            thread.setDaemon(true);
+            return thread;
+        });
+        reporter.scheduleAtFixedRate(() -> out.println(summary()), periodSeconds, periodSeconds, TimeUnit.SECONDS);
+    }
+
+    /**
+     * Returns start time of a phase to give to {@link #record(Phase, long)}.
+     */
+    public long start() {
+        return enabled ? System.nanoTime() : 0;
+    }
+
+    public void record(Phase phase, long startNanos) {
+        if (enabled) {
+            latencies.get(phase).record(System.nanoTime() - startNanos);
+        }
+    }
+
+    public void file() {
+        if (enabled) {
+            files.increment();
+        }
+    }
+
+    public void bytes(long count) {
+        if (enabled) {
+            bytes.add(count);
+        }
+    }
+
+    public void error(Throwable e) {
+        if (enabled) {
+            errors.computeIfAbsent(e.getClass().getSimpleName(), name -> new LongAdder()).increment();
+        }
+    }
+
+    @Override
+    public long getFiles() {
+        return files.sum();
+    }
+
+    @Override
+    public long getBytes() {
+        return bytes.sum();
+    }
+
+    @Override
+    public double getFilesPerSecond() {
+        return getFiles() / elapsedSeconds();
+    }
+
+    @Override
+    public double getMegabytesPerSecond() {
+        return getBytes() / MEGABYTE / elapsedSeconds();
+    }
+
+    @Override
+    public Map<String, Long> getErrors() {
+        Map<String, Long> result = new TreeMap<>();
+        errors.forEach((name, count) -> result.put(name, count.sum()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyMeanNanos() {
+        Map<String, Long> result = new LinkedHashMap<>();
+        latencies.forEach((phase, histogram) -> result.put(phase.name(), histogram.mean()));
+        return result;
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP50Nanos() {
+        return percentiles(0.5);
+    }
+
+    @Override
+    public Map<String, Long> getLatencyP99Nanos() {
+        return percentiles(0.99);
+    }
+
+    public String summary() {
+        StringBuilder summary = new StringBuilder(String.format("files %d, %.1f MB, %.1f files/s, %.2f MB/s, errors %s",
+                getFiles(), getBytes() / MEGABYTE, getFilesPerSecond(), getMegabytesPerSecond(), getErrors()));
+        latencies.forEach((phase, histogram) -> {
+            if (histogram.count() > 0) {
+                summary.append(String.format("%n  %-5s count %d, mean %d ns, p50 %d ns, p99 %d ns, total %.2f s",
+                        phase, histogram.count(), histogram.mean(), histogram.percentile(0.5),
+                        histogram.percentile(0.99), histogram.totalNanos() / 1e9));
+            }
+        });
+        return summary.toString();
+    }
+
+    @Override
+    public void close() {
+        if (null != reporter) {
+            reporter.shutdownNow();
+            reporter = null;
+        }
+        if (null != objectName) {
+            try {
+                ManagementFactory.getPlatformMBeanServer().unregisterMBean(objectName);
+            } catch (JMException ignored) {
+            }
+            objectName = null;
+        }
+    }
+
+    private Map<String, Long> percentiles(double quantile) {
+        Map<String, Long> result = new LinkedHashMap<>();
+        latencies.forEach((phase, histogram) -> result.put(phase.name(), histogram.percentile(quantile)));
+        return result;
+    }
+
+    private double elapsedSeconds() {
+        return Math.max(System.nanoTime() - startNanos, 1) / 1e9;
+    }
+}
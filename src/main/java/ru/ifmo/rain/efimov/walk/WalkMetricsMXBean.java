@@ -0,0 +1,28 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.util.Map;
+
+/**
+ * JMX view of {@link WalkMetrics}. Rates are averages since the walk start,
+ * latencies are per phase name in nanoseconds.
+ */
+public interface WalkMetricsMXBean {
+    long getFiles();
+
+    long getBytes();
+
+    double getFilesPerSecond();
+
+    double getMegabytesPerSecond();
+
+    /**
+     * Number of errors by simple name of exception class.
+     */
+    Map<String, Long> getErrors();
+
+    Map<String, Long> getLatencyMeanNanos();
+
+    Map<String, Long> getLatencyP50Nanos();
+
+    Map<String, Long> getLatencyP99Nanos();
+}
@@ -0,0 +1,325 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.io.BufferedReader;
+import java.io.IOException;
+import java.nio.charset.StandardCharsets;
+import java.nio.file.ClosedWatchServiceException;
+import java.nio.file.FileSystems;
+import java.nio.file.FileVisitResult;
+import java.nio.file.Files;
+import java.nio.file.InvalidPathException;
+import java.nio.file.LinkOption;
+import java.nio.file.Path;
+import java.nio.file.Paths;
+import java.nio.file.SimpleFileVisitor;
+import java.nio.file.StandardCopyOption;
+import java.nio.file.StandardWatchEventKinds;
+import java.nio.file.WatchEvent;
+import java.nio.file.WatchKey;
+import java.nio.file.WatchService;
+import java.nio.file.attribute.BasicFileAttributes;
+import java.util.ArrayList;
+import java.util.HashMap;
+import java.util.HashSet;
+import java.util.LinkedHashMap;
+import java.util.LinkedHashSet;
+import java.util.List;
+import java.util.Map;
+import java.util.Set;
+import java.util.concurrent.TimeUnit;
+
+import static java.nio.file.FileVisitResult.CONTINUE;
+
+/**
+ * Walks the input once and then keeps the output up to date until interrupted. <br/>
+ * Directories of the roots are registered in {@link WatchService}, and only created or modified
+ * files are hashed again. Events are collected until there are none for the debounce time,
+ * so a burst of writes to a file is hashed once. <br/>
+ * After each batch the output file is replaced with the current hashes, each path once,
+ * and the changed lines are printed to standard output. Deleted files are printed with error hash,
+ * the same as a missing file in a single walk. <br/>
+ * Output, cache index and their temporary files are written by the walk itself, so their events are ignored
+ * even if they are inside a watched root. Cache is saved after each batch, because the walk never ends normally.
+ */
+public class WatchingWalker extends RecursiveWalker {
+    private static final int MAX_DELAY_DEBOUNCES = 10;
+
+    private final long debounceMillis;
+    private final Map<String, FileHash> hashes = new LinkedHashMap<>();
+    private final Map<WatchKey, Path> directories = new HashMap<>();
+    private final Set<Path> treeDirectories = new HashSet<>();
+    private final Set<Path> fileRoots = new HashSet<>();
+    private final List<String> roots = new ArrayList<>();
+    private final Set<Path> ownFiles = new HashSet<>();
+    private final HashCache cache;
+    private WatchService watcher;
+    private boolean overflow;
+
+    /**
+     * @param hasher         hash of visited files; <br/>
+     * @param outputChannel  whether to write result through {@link java.nio.channels.FileChannel}; <br/>
+     * @param debounceMillis quiet time after the last event before changed files are hashed. <br/>
+     */
+    public WatchingWalker(FileHasher hasher, boolean outputChannel, long debounceMillis) {
+        this(hasher, outputChannel, debounceMillis, null);
+    }
+
+    /**
+     * @param hasher         hash of visited files; <br/>
+     * @param outputChannel  whether to write result through {@link java.nio.channels.FileChannel}; <br/>
+     * @param debounceMillis quiet time after the last event before changed files are hashed; <br/>
+     * @param cache          cache used by the hasher, saved after each batch, may be null. <br/>
+     */
+    public WatchingWalker(FileHasher hasher, boolean outputChannel, long debounceMillis, HashCache cache) {
+        super(hasher, outputChannel);
+        if (debounceMillis < 0) {
+            throw new IllegalArgumentException("Debounce time must not be negative: " + debounceMillis);
+        }
+        this.debounceMillis = debounceMillis;
+        this.cache = cache;
+    }
+
+    /**
+     * Returns only when interrupted or when the watch service is closed.
+     */
+    @Override
+    public void walk(Path inputFile, Path outputFile) throws IOException {
+        try (WatchService watchService = FileSystems.getDefault().newWatchService()) {
+            watcher = watchService;
+            ownFiles.add(ownFile(outputFile));
+            ownFiles.add(ownFile(tempFile(outputFile)));
+            if (null != cache) {
+                ownFiles.add(ownFile(cache.indexFile()));
+                ownFiles.add(ownFile(cache.tempFile()));
+            }
+            try (BufferedReader input = Files.newBufferedReader(inputFile, StandardCharsets.UTF_8)) {
+                for (String path; null != (path = input.readLine()); ) {
+                    roots.add(path);
+                    walkRoot(path);
+                }
+            }
+            writeOutput(outputFile);
+            saveCache();
+            for (Set<Path> changed; null != (changed = awaitChanges()); ) {
+                List<String> delta = new ArrayList<>();
+                boolean rehashed = overflow || !changed.isEmpty();
+                if (overflow) {
+                    rescan(delta);
+                } else {
+                    for (Path path : changed) {
+                        update(path, delta);
+                    }
+                }
+                if (!delta.isEmpty()) {
+                    writeOutput(outputFile);
+                    printDelta(delta);
+                }
+                if (rehashed) {
+                    saveCache();
+                }
+            }
+        } finally {
+            watcher = null;
+            directories.clear();
+            ownFiles.clear();
+        }
+    }
+
+    private void walkRoot(String path) throws IOException {
+        Path root;
+        try {
+            root = Paths.get(path);
+        } catch (InvalidPathException e) {
+            hashes.put(path, hasher.errorHash(e));
+            return;
+        }
+        if (!Files.isDirectory(root, LinkOption.NOFOLLOW_LINKS)) {
+            fileRoots.add(root);
+            Path parent = null == root.getParent() ? Paths.get("") : root.getParent();
+            if (Files.isDirectory(parent)) {
+                register(parent);
+            }
+        }
+        walkTree(root, null);
+    }
+
+    /**
+     * Events were lost, so the whole input is walked again and compared with the known hashes.
+     */
+    private void rescan(List<String> delta) throws IOException {
+        overflow = false;
+        Map<String, FileHash> old = new LinkedHashMap<>(hashes);
+        hashes.clear();
+        directories.keySet().forEach(WatchKey::cancel);
+        directories.clear();
+        treeDirectories.clear();
+        fileRoots.clear();
+        for (String root : roots) {
+            walkRoot(root);
+        }
+        for (Map.Entry<String, FileHash> entry : hashes.entrySet()) {
+            if (!entry.getValue().equals(old.remove(entry.getKey()))) {
+                delta.add(entry.getKey());
+            }
+        }
+        delta.addAll(old.keySet());
+    }
+
+    /**
+     * Hashes all files of the tree and registers its directories.
+     */
+    private void walkTree(Path start, List<String> delta) throws IOException {
+        Files.walkFileTree(start, new SimpleFileVisitor<>() {
+            @Override
+            public FileVisitResult preVisitDirectory(Path dir, BasicFileAttributes attrs) throws IOException {
+                treeDirectories.add(dir);
+                register(dir);
+                return CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFile(Path file, BasicFileAttributes attrs) {
+                put(file.toString(), hasher.hashOrError(file, attrs), delta);
+                return CONTINUE;
+            }
+
+            @Override
+            public FileVisitResult visitFileFailed(Path file, IOException exc) {
+                put(file.toString(), hasher.errorHash(exc), delta);
+                return CONTINUE;
+            }
+        });
+    }
+
+    private void register(Path directory) throws IOException {
+        WatchKey key = directory.register(watcher, StandardWatchEventKinds.ENTRY_CREATE,
+                StandardWatchEventKinds.ENTRY_MODIFY, StandardWatchEventKinds.ENTRY_DELETE);
+        directories.put(key, directory);
+    }
+
+    /**
+     * Waits for events and collects changed paths until there are no events for the debounce time,
+     * but not longer than several debounce times, so constant writes don't delay other changes forever.
+     *
+     * @return changed paths, null if the walk must be stopped
+     */
+    private Set<Path> awaitChanges() {
+        Set<Path> changed = new LinkedHashSet<>();
+        try {
+            WatchKey key = watcher.take();
+            long deadline = System.nanoTime() + TimeUnit.MILLISECONDS.toNanos(debounceMillis * MAX_DELAY_DEBOUNCES);
+            while (null != key) {
+                collect(key, changed);
+                if (System.nanoTime() > deadline) {
+                    break;
+                }
+                key = watcher.poll(debounceMillis, TimeUnit.MILLISECONDS);
+            }
+        } catch (InterruptedException e) {
+            Thread.currentThread().interrupt();
+            return null;
+        } catch (ClosedWatchServiceException e) {
+            return null;
+        }
+        return changed;
+    }
+
+    private void collect(WatchKey key, Set<Path> changed) {
+        Path directory = directories.get(key);
+        for (WatchEvent<?> event : key.pollEvents()) {
+            if (event.kind() == StandardWatchEventKinds.OVERFLOW) {
+                overflow = true;
+            } else if (null != directory) {
+                Path path = directory.resolve((Path) event.context());
+                if (ownFiles.contains(ownFile(path))) {
+                    continue;
+                }
+                if (treeDirectories.contains(directory) || fileRoots.contains(path)) {
+                    changed.add(path);
+                }
+            }
+        }
+        if (!key.reset()) {
+            directories.remove(key);
+            treeDirectories.remove(directory);
+        }
+    }
+
+    private void update(Path path, List<String> delta) throws IOException {
+        if (Files.notExists(path, LinkOption.NOFOLLOW_LINKS)) {
+            removeTree(path, delta);
+        } else if (Files.isDirectory(path, LinkOption.NOFOLLOW_LINKS)) {
+            walkTree(path, delta);
+        } else {
+            BasicFileAttributes attrs;
+            try {
+                attrs = Files.readAttributes(path, BasicFileAttributes.class, LinkOption.NOFOLLOW_LINKS);
+            } catch (IOException e) {
+                put(path.toString(), hasher.errorHash(e), delta);
+                return;
+            }
+            put(path.toString(), hasher.hashOrError(path, attrs), delta);
+        }
+    }
+
+    private void removeTree(Path path, List<String> delta) {
+        String prefix = path.toString() + path.getFileSystem().getSeparator();
+        List<String> removed = new ArrayList<>();
+        for (String file : hashes.keySet()) {
+            if (file.equals(path.toString()) || file.startsWith(prefix)) {
+                removed.add(file);
+            }
+        }
+        for (String file : removed) {
+            hashes.remove(file);
+            delta.add(file);
+        }
+    }
+
+    private void put(String path, FileHash hash, List<String> delta) {
+        FileHash old = hashes.put(path, hash);
+        if (null != delta && !hash.equals(old)) {
+            delta.add(path);
+        }
+    }
+
+    /**
+     * Output is written next to the target and moved over it, so readers never see a partial file.
+     */
+    private void writeOutput(Path outputFile) throws IOException {
+        Path tempFile = tempFile(outputFile);
+        try (ResultWriter output = openOutput(tempFile)) {
+            for (Map.Entry<String, FileHash> entry : hashes.entrySet()) {
+                output.write(entry.getValue(), entry.getKey());
+            }
+        }
+        Files.move(tempFile, outputFile, StandardCopyOption.REPLACE_EXISTING, StandardCopyOption.ATOMIC_MOVE);
+    }
+
+    private static Path tempFile(Path outputFile) {
+        return outputFile.toAbsolutePath().resolveSibling(outputFile.getFileName() + ".tmp");
+    }
+
+    private static Path ownFile(Path file) {
+        return file.toAbsolutePath().normalize();
+    }
+
+    /**
+     * Files hashed in the batch are saved, so a killed watch doesn't hash them again on the next start.
+     */
+    private void saveCache() throws IOException {
+        if (null != cache) {
+            cache.save();
+        }
+    }
+
+    private void printDelta(List<String> delta) {
+        StringBuilder lines = new StringBuilder();
+        for (String path : delta) {
+            lines.append(hashes.getOrDefault(path, hasher.errorHash())).append(' ')
+                    .append(path).append(System.lineSeparator());
+        }
+        System.out.print(lines);
+        System.out.flush();
+    }
+}
@@ -0,0 +1,101 @@
+package ru.ifmo.rain.efimov.walk;
+
+import java.nio.ByteBuffer;
+
+/**
+ * xxHash64 with zero seed. <br/>
+ * Content is consumed by 32-byte stripes of four independent 64 bit lanes,
+ * so the lanes are computed in parallel by the CPU.
+ */
+public class XXHash64 implements HashFunction {
+    public static final String NAME = "xxh64";
+    private static final long PRIME1 = 0x9E3779B185EBCA87L;
+    private static final long PRIME2 = 0xC2B2AE3D27D4EB4FL;
+    private static final long PRIME3 = 0x165667B19E3779F9L;
+    private static final long PRIME4 = 0x85EBCA77C2B2AE63L;
+    private static final long PRIME5 = 0x27D4EB2F165667C5L;
+    private static final int STRIPE = 32;
+
+    @Override
+    public String name() {
+        return NAME;
+    }
+
+    @Override
+    public int size() {
+        return Long.BYTES;
+    }
+
+    @Override
+    public Hasher newHasher() {
+        return new BlockHasher(STRIPE) {
+            private long v1 = PRIME1 + PRIME2;
+            private long v2 = PRIME2;
+            private long v3 = 0;
+            private long v4 = -PRIME1;
+
+            @Override
+            protected void process(ByteBuffer data, int start, int end) {
+                long a1 = v1;
+                long a2 = v2;
+                long a3 = v3;
+                long a4 = v4;
+                for (int i = start; i < end; i += STRIPE) {
+                    a1 = round(a1, getLong(data, i));
+                    a2 = round(a2, getLong(data, i + 8));
+                    a3 = round(a3, getLong(data, i + 16));
+                    a4 = round(a4, getLong(data, i + 24));
+                }
+                v1 = a1;
+                v2 = a2;
+                v3 = a3;
+                v4 = a4;
+            }
+
+            @Override
+            protected byte[] finish(ByteBuffer tail, long length) {
+                long hash;
+                if (length >= STRIPE) {
+                    hash = Long.rotateLeft(v1, 1) + Long.rotateLeft(v2, 7)
+                            + Long.rotateLeft(v3, 12) + Long.rotateLeft(v4, 18);
+                    hash = mergeRound(hash, v1);
+                    hash = mergeRound(hash, v2);
+                    hash = mergeRound(hash, v3);
+                    hash = mergeRound(hash, v4);
+                } else {
+                    hash = PRIME5;
+                }
+                hash += length;
+                int i = tail.position();
+                int limit = tail.limit();
+                for (; i + Long.BYTES <= limit; i += Long.BYTES) {
+                    hash ^= round(0, getLong(tail, i));
+                    hash = Long.rotateLeft(hash, 27) * PRIME1 + PRIME4;
+                }
+                if (i + Integer.BYTES <= limit) {
+                    hash ^= getUnsignedInt(tail, i) * PRIME1;
+                    hash = Long.rotateLeft(hash, 23) * PRIME2 + PRIME3;
+                    i += Integer.BYTES;
+                }
+                for (; i < limit; i++) {
+                    hash ^= (tail.get(i) & 0xff) * PRIME5;
+                    hash = Long.rotateLeft(hash, 11) * PRIME1;
+                }
+                hash ^= hash >>> 33;
+                hash *= PRIME2;
+                hash ^= hash >>> 29;
+                hash *= PRIME3;
+                hash ^= hash >>> 32;
+                return toBytes(hash);
+            }
+        };
+    }
+
+    private static long round(long acc, long input) {
+        return Long.rotateLeft(acc + input * PRIME2, 31) * PRIME1;
+    }
+
+    private static long mergeRound(long acc, long value) {
+        return (acc ^ round(0, value)) * PRIME1 + PRIME4;
+    }
+}